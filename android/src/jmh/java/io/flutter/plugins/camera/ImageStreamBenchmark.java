@@ -0,0 +1,157 @@
+package io.flutter.plugins.camera;
+
+import io.flutter.plugin.common.StandardMethodCodec;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures turning a YUV_420_888 stream frame into the message sent to Dart, with the current map
+ * layout next to alternative ones. Run with {@code ./gradlew jmh}.
+ *
+ * <p>Frames are synthetic: a Y plane and semi-planar U and V planes, as most devices deliver them,
+ * with rows optionally padded to a larger stride.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ImageStreamBenchmark {
+  private static final int YUV_420_888 = 0x23;
+
+  @Param({"640x480", "1280x720", "1920x1080"})
+  public String resolution;
+
+  @Param({"0", "64"})
+  public int rowPadding;
+
+  private int width;
+  private int height;
+  private ByteBuffer[] planeBuffers;
+  private int[] rowStrides;
+  private int[] pixelStrides;
+  private FrameBufferPool pool;
+
+  @Setup
+  public void setUp() {
+    String[] size = resolution.split("x");
+    width = Integer.parseInt(size[0]);
+    height = Integer.parseInt(size[1]);
+    int rowStride = width + rowPadding;
+    int lumaSize = rowStride * (height - 1) + width;
+    int chromaSize = rowStride * (height / 2 - 1) + width - 1;
+
+    // A fixed seed keeps the frames, and so the reports, the same from run to run.
+    Random random = new Random(42);
+    int[] planeSizes = {lumaSize, chromaSize, chromaSize};
+    planeBuffers = new ByteBuffer[planeSizes.length];
+    for (int i = 0; i < planeSizes.length; i++) {
+      byte[] bytes = new byte[planeSizes[i]];
+      random.nextBytes(bytes);
+      // Image planes are direct buffers.
+      planeBuffers[i] = ByteBuffer.allocateDirect(planeSizes[i]);
+      planeBuffers[i].put(bytes);
+    }
+    rowStrides = new int[] {rowStride, rowStride, rowStride};
+    pixelStrides = new int[] {1, 2, 2};
+    pool = new FrameBufferPool(1, planeSizes);
+  }
+
+  /** The map built by {@link ImageStreamFrames}, without encoding it. */
+  @Benchmark
+  public Map<String, Object> currentMap() {
+    rewindPlanes();
+    return ImageStreamFrames.toMap(
+        width, height, YUV_420_888, planeBuffers, rowStrides, pixelStrides);
+  }
+
+  /** The map built by {@link ImageStreamFrames}, encoded as the event sink does. */
+  @Benchmark
+  public ByteBuffer currentMapEncoded() {
+    return StandardMethodCodec.INSTANCE.encodeSuccessEnvelope(currentMap());
+  }
+
+  /** All planes copied back to back into one array, described by parallel int lists. */
+  @Benchmark
+  public ByteBuffer packedPlanesEncoded() {
+    rewindPlanes();
+    int totalSize = 0;
+    for (ByteBuffer buffer : planeBuffers) {
+      totalSize += buffer.remaining();
+    }
+    byte[] bytes = new byte[totalSize];
+    List<Integer> offsets = new ArrayList<>();
+    int offset = 0;
+    for (ByteBuffer buffer : planeBuffers) {
+      offsets.add(offset);
+      int size = buffer.remaining();
+      buffer.get(bytes, offset, size);
+      offset += size;
+    }
+    List<Integer> bytesPerRow = new ArrayList<>();
+    List<Integer> bytesPerPixel = new ArrayList<>();
+    for (int i = 0; i < planeBuffers.length; i++) {
+      bytesPerRow.add(rowStrides[i]);
+      bytesPerPixel.add(pixelStrides[i]);
+    }
+
+    Map<String, Object> imageBuffer = new HashMap<>();
+    imageBuffer.put("width", width);
+    imageBuffer.put("height", height);
+    imageBuffer.put("format", YUV_420_888);
+    imageBuffer.put("bytes", bytes);
+    imageBuffer.put("planeOffsets", offsets);
+    imageBuffer.put("bytesPerRow", bytesPerRow);
+    imageBuffer.put("bytesPerPixel", bytesPerPixel);
+    return StandardMethodCodec.INSTANCE.encodeSuccessEnvelope(imageBuffer);
+  }
+
+  /** The current layout, but with plane arrays reused from a {@link FrameBufferPool}. */
+  @Benchmark
+  public ByteBuffer pooledPlanesEncoded() {
+    rewindPlanes();
+    byte[][] frame = pool.acquire();
+    List<Map<String, Object>> planes = new ArrayList<>();
+    for (int i = 0; i < planeBuffers.length; i++) {
+      planeBuffers[i].get(frame[i]);
+
+      Map<String, Object> planeBuffer = new HashMap<>();
+      planeBuffer.put("bytesPerRow", rowStrides[i]);
+      planeBuffer.put("bytesPerPixel", pixelStrides[i]);
+      planeBuffer.put("bytes", frame[i]);
+      planes.add(planeBuffer);
+    }
+
+    Map<String, Object> imageBuffer = new HashMap<>();
+    imageBuffer.put("width", width);
+    imageBuffer.put("height", height);
+    imageBuffer.put("format", YUV_420_888);
+    imageBuffer.put("planes", planes);
+    ByteBuffer encoded = StandardMethodCodec.INSTANCE.encodeSuccessEnvelope(imageBuffer);
+    pool.release(frame);
+    return encoded;
+  }
+
+  private void rewindPlanes() {
+    for (ByteBuffer buffer : planeBuffers) {
+      buffer.rewind();
+    }
+  }
+}
@@ -11,6 +11,7 @@ import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraConstrainedHighSpeedCaptureSession;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
@@ -22,10 +23,16 @@ import android.media.Image;
 import android.media.ImageReader;
 import android.media.MediaRecorder;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Range;
 import android.util.Size;
 import android.view.OrientationEventListener;
 import android.view.Surface;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodChannel.Result;
 import io.flutter.view.TextureRegistry.SurfaceTextureEntry;
@@ -40,26 +47,65 @@ import java.util.List;
 import java.util.Map;
 
 public class Camera {
+  // Images each reader can hand out at once.
+  private static final int IMAGE_READER_IMAGES = 2;
+
   private final SurfaceTextureEntry flutterTexture;
   private final CameraManager cameraManager;
   private final OrientationEventListener orientationEventListener;
-  private final boolean isFrontFacing;
-  private final int sensorOrientation;
+  private boolean isFrontFacing;
+  private int sensorOrientation;
   private final String cameraName;
-  private final Size captureSize;
-  private final Size previewSize;
+  private CameraCharacteristics cameraCharacteristics;
+  private Size captureSize;
+  private Size previewSize;
+  // The image stream size outside of recordings.
+  private Size streamSize;
+  private final ResolutionPreset resolutionPreset;
   private final boolean enableAudio;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final MemoryBudget memoryBudget;
+  // Method calls, device callbacks and image readers of this camera all run on its own thread.
+  private final HandlerThread cameraThread;
+  private final Handler cameraHandler;
 
   private CameraDevice cameraDevice;
+  // The pending initialize call, until the first preview started or opening failed.
+  @Nullable private Result openResult;
   private CameraCaptureSession cameraCaptureSession;
   private ImageReader pictureImageReader;
   private ImageReader imageStreamReader;
+  private EventChannel.EventSink imageStreamSink;
+  private final ImageStreamPipeline imageStreamPipeline;
+  private final StreamSnapshot streamSnapshot;
+  // What this camera reserved in the memory budget.
+  private long pictureReaderBytes;
+  private long streamReaderBytes;
+  private long preEventBufferBytes;
+  private boolean streamingImages;
   private DartMessenger dartMessenger;
   private CaptureRequest.Builder captureRequestBuilder;
+  // The Flutter surface of the current session.
+  private Surface flutterSurface;
+  // Sessions are rebuilt on every mode switch, the Flutter surface outlives them.
+  private final SurfaceManager surfaceManager = new SurfaceManager();
   private MediaRecorder mediaRecorder;
+  private MediaCodecRecorder codecRecorder;
+  private PreEventSampleSink preEventSink;
+  // The frame rate range auto exposure targets, null lets the device choose.
+  private Range<Integer> aeTargetFpsRange;
+  // Set while recording through a constrained high-speed session.
+  private CamcorderProfile highSpeedProfile;
   private boolean recordingVideo;
+  // Counts segmented recordings, so a failure of one doesn't stop a later one.
+  private int segmentedRecordingCount;
+  // Set while the repeating request is stopped by pausePreview.
+  private boolean previewPaused;
+  // Set while the preview is paused because the app went to the background.
+  private boolean previewAutoPaused;
   private CamcorderProfile recordingProfile;
-  private int currentOrientation = ORIENTATION_UNKNOWN;
+  // Written by the orientation listener on the main thread.
+  private volatile int currentOrientation = ORIENTATION_UNKNOWN;
 
   // Mirrors camera.dart
   public enum ResolutionPreset {
@@ -75,18 +121,23 @@ public class Camera {
       final Activity activity,
       final SurfaceTextureEntry flutterTexture,
       final DartMessenger dartMessenger,
+      final MemoryBudget memoryBudget,
       final String cameraName,
       final String resolutionPreset,
-      final boolean enableAudio)
-      throws CameraAccessException {
+      final boolean enableAudio) {
     if (activity == null) {
       throw new IllegalStateException("No activity available!");
     }
 
     this.cameraName = cameraName;
+    this.resolutionPreset = ResolutionPreset.valueOf(resolutionPreset);
     this.enableAudio = enableAudio;
     this.flutterTexture = flutterTexture;
     this.dartMessenger = dartMessenger;
+    this.memoryBudget = memoryBudget;
+    // Frames beyond these two wait in the image reader, which only hands out the latest one.
+    this.imageStreamPipeline = new ImageStreamPipeline(mainHandler::post, memoryBudget, 2);
+    this.streamSnapshot = new StreamSnapshot(memoryBudget);
     this.cameraManager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
     orientationEventListener =
         new OrientationEventListener(activity.getApplicationContext()) {
@@ -101,22 +152,26 @@ public class Camera {
         };
     orientationEventListener.enable();
 
-    CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraName);
-    StreamConfigurationMap streamConfigurationMap =
-        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-    //noinspection ConstantConditions
-    sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-    //noinspection ConstantConditions
-    isFrontFacing =
-        characteristics.get(CameraCharacteristics.LENS_FACING) == CameraMetadata.LENS_FACING_FRONT;
-    ResolutionPreset preset = ResolutionPreset.valueOf(resolutionPreset);
-    recordingProfile =
-        CameraUtils.getBestAvailableCamcorderProfileForResolutionPreset(cameraName, preset);
-    captureSize = new Size(recordingProfile.videoFrameWidth, recordingProfile.videoFrameHeight);
-    previewSize = computeBestPreviewSize(cameraName, preset);
+    cameraThread = new HandlerThread("Camera" + cameraName);
+    cameraThread.start();
+    cameraHandler = new Handler(cameraThread.getLooper());
+  }
+
+  String getCameraName() {
+    return cameraName;
+  }
+
+  /** Returns the handler of the thread that every call into this camera has to be made on. */
+  Handler getHandler() {
+    return cameraHandler;
+  }
+
+  DartMessenger getDartMessenger() {
+    return dartMessenger;
   }
 
-  private void prepareMediaRecorder(String outputFilePath) throws IOException {
+  private void prepareMediaRecorder(
+      String outputFilePath, CamcorderProfile profile, boolean recordAudio) throws IOException {
     if (mediaRecorder != null) {
       mediaRecorder.release();
     }
@@ -124,32 +179,300 @@ public class Camera {
 
     // There's a specific order that mediaRecorder expects. Do not change the order
     // of these function calls.
-    if (enableAudio) mediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
+    if (recordAudio) mediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
     mediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
-    mediaRecorder.setOutputFormat(recordingProfile.fileFormat);
-    if (enableAudio) mediaRecorder.setAudioEncoder(recordingProfile.audioCodec);
-    mediaRecorder.setVideoEncoder(recordingProfile.videoCodec);
-    mediaRecorder.setVideoEncodingBitRate(recordingProfile.videoBitRate);
-    if (enableAudio) mediaRecorder.setAudioSamplingRate(recordingProfile.audioSampleRate);
-    mediaRecorder.setVideoFrameRate(recordingProfile.videoFrameRate);
-    mediaRecorder.setVideoSize(recordingProfile.videoFrameWidth, recordingProfile.videoFrameHeight);
+    mediaRecorder.setOutputFormat(profile.fileFormat);
+    if (recordAudio) mediaRecorder.setAudioEncoder(profile.audioCodec);
+    mediaRecorder.setVideoEncoder(profile.videoCodec);
+    mediaRecorder.setVideoEncodingBitRate(profile.videoBitRate);
+    if (recordAudio) mediaRecorder.setAudioSamplingRate(profile.audioSampleRate);
+    mediaRecorder.setVideoFrameRate(profile.videoFrameRate);
+    mediaRecorder.setVideoSize(profile.videoFrameWidth, profile.videoFrameHeight);
     mediaRecorder.setOutputFile(outputFilePath);
     mediaRecorder.setOrientationHint(getMediaOrientation());
 
     mediaRecorder.prepare();
   }
 
-  @SuppressLint("MissingPermission")
-  public void open(@NonNull final Result result) throws CameraAccessException {
-    pictureImageReader =
-        ImageReader.newInstance(
-            captureSize.getWidth(), captureSize.getHeight(), ImageFormat.JPEG, 2);
+  private SampleSink createSampleSink(
+      String outputFilePath, VideoRecordingOptions options, int trackCount) throws IOException {
+    if (options.isSegmented()) {
+      final int recording = ++segmentedRecordingCount;
+      return new SegmentedMuxerSink(
+          outputFilePath,
+          getMediaOrientation(),
+          trackCount,
+          options.getSegmentDurationUs(),
+          options.getSegmentSizeBytes(),
+          new SegmentedMuxerSink.Callback() {
+            @Override
+            public void onSegmentFinished(String filePath) {
+              mainHandler.post(() -> dartMessenger.sendVideoSegmentFinishedEvent(filePath));
+            }
+
+            @Override
+            public void onKeyFrameNeeded() {
+              requestKeyFrame();
+            }
+
+            @Override
+            public void onError(String description) {
+              dartMessenger.send(DartMessenger.EventType.ERROR, description);
+              cameraHandler.post(
+                  () -> {
+                    if (recording == segmentedRecordingCount && recordingVideo) {
+                      stopRecordingAfterError();
+                    }
+                  });
+            }
+          });
+    }
+    return new MuxerSampleSink(outputFilePath, getMediaOrientation(), trackCount);
+  }
+
+  private void prepareMediaCodecRecorder(
+      VideoRecordingOptions options, CamcorderProfile profile, SampleSink sink) throws IOException {
+    boolean recordAudio = options.recordsAudio(enableAudio);
+    try {
+      Integer timestampSource =
+          cameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+      boolean realtimeClock =
+          timestampSource != null
+              && timestampSource == CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+      codecRecorder = new MediaCodecRecorder(profile, options, recordAudio, realtimeClock, sink);
+    } catch (IOException | RuntimeException e) {
+      sink.release();
+      throw e;
+    }
+  }
+
+  private CamcorderProfile getRecordingProfile(VideoRecordingOptions options) {
+    if (!options.isHighSpeed()) {
+      return recordingProfile;
+    }
+    Size videoSize =
+        CameraUtils.computeHighSpeedVideoSize(
+            cameraCharacteristics, options.highSpeedFrameRate, options.highSpeedVideoSize);
+    return CameraUtils.getHighSpeedCamcorderProfile(
+        cameraName, videoSize, options.highSpeedFrameRate);
+  }
+
+  private void startRecordingSession(
+      VideoRecordingOptions options, CamcorderProfile profile, Runnable onSuccessCallback)
+      throws CameraAccessException {
+    if (options.isHighSpeed()) {
+      if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+        throw new IllegalStateException("High-speed recording requires Android API +23.");
+      }
+      highSpeedProfile = profile;
+    }
+    createRecordingSession(onSuccessCallback);
+  }
+
+  private Surface getRecorderSurface() {
+    return codecRecorder != null ? codecRecorder.getSurface() : mediaRecorder.getSurface();
+  }
+
+  /** Builds the session of an ongoing recording, including the image stream if it is running. */
+  private void createRecordingSession(Runnable onSuccessCallback) throws CameraAccessException {
+    Surface recorderSurface = getRecorderSurface();
+    if (highSpeedProfile != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+      // A constrained high-speed session has no room for the image stream.
+      createHighSpeedCaptureSession(
+          new Size(highSpeedProfile.videoFrameWidth, highSpeedProfile.videoFrameHeight),
+          highSpeedProfile.videoFrameRate,
+          onSuccessCallback,
+          recorderSurface);
+    } else if (streamingImages) {
+      closeCaptureSession();
+      resizeImageStreamReader(
+          CameraUtils.computeRecordingStreamSize(cameraCharacteristics, previewSize));
+      createRecordingAndImageStreamSession(onSuccessCallback, recorderSurface);
+    } else {
+      // The JPEG output lets takePicture capture video snapshots without a session rebuild.
+      createCaptureSession(
+          CameraDevice.TEMPLATE_RECORD,
+          onSuccessCallback,
+          recorderSurface,
+          pictureImageReader.getSurface());
+    }
+  }
+
+  private void createRecordingAndImageStreamSession(
+      Runnable onSuccessCallback, Surface recorderSurface) throws CameraAccessException {
+    createCaptureSession(
+        CameraDevice.TEMPLATE_RECORD,
+        onSuccessCallback,
+        () -> {
+          // Degrade the image stream rather than failing the recording.
+          Size smallerSize =
+              CameraUtils.computeSmallerStreamSize(
+                  cameraCharacteristics,
+                  new Size(imageStreamReader.getWidth(), imageStreamReader.getHeight()));
+          if (smallerSize == null) {
+            dartMessenger.send(
+                DartMessenger.EventType.ERROR, "Failed to configure camera session.");
+            return;
+          }
+          try {
+            closeCaptureSession();
+            resizeImageStreamReader(smallerSize);
+            createRecordingAndImageStreamSession(onSuccessCallback, recorderSurface);
+          } catch (CameraAccessException e) {
+            dartMessenger.send(DartMessenger.EventType.ERROR, e.getMessage());
+          }
+        },
+        recorderSurface,
+        imageStreamReader.getSurface());
+  }
+
+  private void createImageStreamSession() throws CameraAccessException {
+    closeCaptureSession();
+    resizeImageStreamReader(streamSize);
+    createCaptureSession(CameraDevice.TEMPLATE_RECORD, imageStreamReader.getSurface());
+  }
+
+  private void resizeImageStreamReader(Size size) {
+    size = fitStreamSizeToMemoryBudget(size);
+    if (imageStreamReader.getWidth() == size.getWidth()
+        && imageStreamReader.getHeight() == size.getHeight()) {
+      return;
+    }
+    ImageReader reader;
+    try {
+      reader = createImageStreamReader(size);
+    } catch (IllegalStateException e) {
+      // Even the smallest size doesn't fit, the current reader is already counted.
+      return;
+    }
+    imageStreamReader.close();
+    imageStreamReader = reader;
+    updateImageStreamListener();
+  }
+
+  private ImageReader createImageStreamReader(Size size) {
+    streamReaderBytes =
+        updateReservation(
+            MemoryBudget.Category.STREAM_READER,
+            streamReaderBytes,
+            MemoryBudget.imageReaderBytes(size.getWidth(), size.getHeight(), IMAGE_READER_IMAGES));
+    return ImageReader.newInstance(
+        size.getWidth(), size.getHeight(), ImageFormat.YUV_420_888, IMAGE_READER_IMAGES);
+  }
+
+  /** Steps {@code size} down until the stream reader fits the memory budget, if it can. */
+  private Size fitStreamSizeToMemoryBudget(Size size) {
+    while (!memoryBudget.fits(
+        MemoryBudget.imageReaderBytes(size.getWidth(), size.getHeight(), IMAGE_READER_IMAGES)
+            - streamReaderBytes)) {
+      Size smallerSize = CameraUtils.computeSmallerStreamSize(cameraCharacteristics, size);
+      if (smallerSize == null) {
+        break;
+      }
+      size = smallerSize;
+    }
+    return size;
+  }
+
+  /** Replaces the {@code reservedBytes} this camera holds in {@code category}. */
+  /**
+   * Replaces the {@code reservedBytes} of {@code category} with {@code bytes}.
+   *
+   * @throws IllegalStateException if {@code bytes} don't fit in the budget, the old reservation is
+   *     kept then.
+   */
+  private long updateReservation(MemoryBudget.Category category, long reservedBytes, long bytes) {
+    memoryBudget.release(category, reservedBytes);
+    if (bytes > 0 && !memoryBudget.tryReserve(category, bytes)) {
+      memoryBudget.reserve(category, reservedBytes);
+      throw new IllegalStateException(
+          "The " + category.value + " would exceed the memory budget (" + bytes + " bytes).");
+    }
+    return bytes;
+  }
+
+  private void releaseMediaCodecRecorder() {
+    if (codecRecorder != null) {
+      codecRecorder.release();
+      codecRecorder = null;
+    }
+    preEventSink = null;
+    preEventBufferBytes =
+        updateReservation(MemoryBudget.Category.PRE_EVENT_BUFFER, preEventBufferBytes, 0);
+  }
+
+  // Called from the encoder threads.
+  private void requestKeyFrame() {
+    MediaCodecRecorder recorder = codecRecorder;
+    if (recorder != null) {
+      recorder.requestKeyFrame();
+    }
+  }
+
+  /**
+   * Resolves the characteristics, profile and sizes of the camera and creates its image readers,
+   * none of which needs the camera permission. Runs ahead of {@link #open} while the user is still
+   * being asked for it.
+   */
+  public void prepare() throws CameraAccessException {
+    // The stream reader is created last, a failed attempt is picked up where it stopped.
+    if (imageStreamReader != null) {
+      return;
+    }
+    cameraCharacteristics = cameraManager.getCameraCharacteristics(cameraName);
+    StreamConfigurationMap streamConfigurationMap =
+        cameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+    //noinspection ConstantConditions
+    sensorOrientation = cameraCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+    //noinspection ConstantConditions
+    isFrontFacing =
+        cameraCharacteristics.get(CameraCharacteristics.LENS_FACING)
+            == CameraMetadata.LENS_FACING_FRONT;
+    recordingProfile =
+        CameraUtils.getBestAvailableCamcorderProfileForResolutionPreset(
+            cameraName, resolutionPreset);
+    captureSize = new Size(recordingProfile.videoFrameWidth, recordingProfile.videoFrameHeight);
+    Size maxPreviewSize = computeBestPreviewSize(cameraName, resolutionPreset);
+    Size[] sessionSizes =
+        CameraUtils.computePreviewAndStreamSizes(
+            cameraCharacteristics,
+            cameraName,
+            maxPreviewSize,
+            captureSize,
+            recordingProfile.videoFrameRate);
+    previewSize = sessionSizes != null ? sessionSizes[0] : maxPreviewSize;
+    streamSize = sessionSizes != null ? sessionSizes[1] : maxPreviewSize;
+
+    if (pictureImageReader == null) {
+      pictureReaderBytes =
+          updateReservation(
+              MemoryBudget.Category.PICTURE_READER,
+              pictureReaderBytes,
+              MemoryBudget.imageReaderBytes(
+                  captureSize.getWidth(), captureSize.getHeight(), IMAGE_READER_IMAGES));
+      pictureImageReader =
+          ImageReader.newInstance(
+              captureSize.getWidth(),
+              captureSize.getHeight(),
+              ImageFormat.JPEG,
+              IMAGE_READER_IMAGES);
+    }
 
     // Used to steam image byte data to dart side.
-    imageStreamReader =
-        ImageReader.newInstance(
-            previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, 2);
+    imageStreamReader = createImageStreamReader(fitStreamSizeToMemoryBudget(streamSize));
+  }
 
+  @SuppressLint("MissingPermission")
+  public void open(@NonNull final Result result) throws CameraAccessException {
+    try {
+      prepare();
+    } catch (IllegalStateException e) {
+      // The readers don't fit in the memory budget.
+      result.error("CameraAccess", e.getMessage(), null);
+      return;
+    }
+
+    openResult = result;
     cameraManager.openCamera(
         cameraName,
         new CameraDevice.StateCallback() {
@@ -159,10 +482,10 @@ public class Camera {
             try {
               startPreview();
             } catch (CameraAccessException e) {
-              result.error("CameraAccess", e.getMessage(), null);
-              close();
+              failOpen(e.getMessage());
               return;
             }
+            openResult = null;
             Map<String, Object> reply = new HashMap<>();
             reply.put("textureId", flutterTexture.id());
             reply.put("previewWidth", previewSize.getWidth());
@@ -178,13 +501,16 @@ public class Camera {
 
           @Override
           public void onDisconnected(@NonNull CameraDevice cameraDevice) {
+            if (openResult != null) {
+              failOpen("The camera was disconnected.");
+              return;
+            }
             close();
             dartMessenger.send(DartMessenger.EventType.ERROR, "The camera was disconnected.");
           }
 
           @Override
           public void onError(@NonNull CameraDevice cameraDevice, int errorCode) {
-            close();
             String errorDescription;
             switch (errorCode) {
               case ERROR_CAMERA_IN_USE:
@@ -205,10 +531,23 @@ public class Camera {
               default:
                 errorDescription = "Unknown camera error";
             }
+            if (openResult != null) {
+              failOpen(errorDescription);
+              return;
+            }
+            close();
             dartMessenger.send(DartMessenger.EventType.ERROR, errorDescription);
           }
         },
-        null);
+        cameraHandler);
+  }
+
+  /** Closes the camera and fails the pending initialize call, whose caller disposes of it. */
+  private void failOpen(String description) {
+    Result result = openResult;
+    openResult = null;
+    close();
+    result.error("CameraAccess", description, null);
   }
 
   private void writeToFile(ByteBuffer buffer, File file) throws IOException {
@@ -223,6 +562,46 @@ public class Camera {
     return flutterTexture;
   }
 
+  /**
+   * Makes auto exposure target frame rates from {@code minFps} to {@code maxFps}, one of the ranges
+   * reported by {@code availableCameras}, or lets the device choose again if they are null. The
+   * running session only gets an updated repeating request.
+   */
+  public void setFpsRange(Integer minFps, Integer maxFps, @NonNull final Result result) {
+    if (cameraCharacteristics == null) {
+      result.error("CameraAccess", "The camera isn't open yet.", null);
+      return;
+    }
+    Range<Integer> range = null;
+    if (minFps != null && maxFps != null) {
+      range = new Range<>(minFps, maxFps);
+      if (!CameraUtils.isAvailableFpsRange(cameraCharacteristics, range)) {
+        result.error("invalidFpsRange", "The camera doesn't support " + range + " fps.", null);
+        return;
+      }
+    }
+    if (highSpeedProfile != null) {
+      result.error("invalidFpsRange", "High-speed recordings run at a fixed frame rate.", null);
+      return;
+    }
+    aeTargetFpsRange = range;
+    if (cameraCaptureSession == null) {
+      // Applied once the next session is configured.
+      result.success(null);
+      return;
+    }
+    try {
+      captureRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, range);
+      if (!previewPaused) {
+        cameraCaptureSession.setRepeatingRequest(
+            captureRequestBuilder.build(), null, cameraHandler);
+      }
+      result.success(null);
+    } catch (CameraAccessException | IllegalStateException e) {
+      result.error("CameraAccess", e.getMessage(), null);
+    }
+  }
+
   public void takePicture(String filePath, @NonNull final Result result) {
     final File file = new File(filePath);
 
@@ -231,6 +610,14 @@ public class Camera {
           "fileExists", "File at path '" + filePath + "' already exists. Cannot overwrite.", null);
       return;
     }
+    if (recordingVideo && (highSpeedProfile != null || streamingImages)) {
+      // Neither session has room for the JPEG output next to the recorder.
+      result.error(
+          "captureFailure",
+          "Pictures can't be taken while recording in high-speed mode or while streaming images.",
+          null);
+      return;
+    }
 
     pictureImageReader.setOnImageAvailableListener(
         reader -> {
@@ -242,11 +629,19 @@ public class Camera {
             result.error("IOError", "Failed saving image", null);
           }
         },
-        null);
+        cameraHandler);
 
     try {
-      final CaptureRequest.Builder captureBuilder =
-          cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+      final CaptureRequest.Builder captureBuilder;
+      if (recordingVideo) {
+        // The recording session already has the JPEG output configured. Targeting the preview and
+        // the recorder as well keeps the video going without dropping the snapshot frame.
+        captureBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_VIDEO_SNAPSHOT);
+        captureBuilder.addTarget(flutterSurface);
+        captureBuilder.addTarget(getRecorderSurface());
+      } else {
+        captureBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+      }
       captureBuilder.addTarget(pictureImageReader.getSurface());
       captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, getMediaOrientation());
 
@@ -272,7 +667,7 @@ public class Camera {
               result.error("captureFailure", reason, null);
             }
           },
-          null);
+          cameraHandler);
     } catch (CameraAccessException e) {
       result.error("cameraAccess", e.getMessage(), null);
     }
@@ -286,6 +681,12 @@ public class Camera {
   private void createCaptureSession(
       int templateType, Runnable onSuccessCallback, Surface... surfaces)
       throws CameraAccessException {
+    createCaptureSession(templateType, onSuccessCallback, null, surfaces);
+  }
+
+  private void createCaptureSession(
+      int templateType, Runnable onSuccessCallback, Runnable onFailureCallback, Surface... surfaces)
+      throws CameraAccessException {
     // Close any existing capture session.
     closeCaptureSession();
 
@@ -295,13 +696,13 @@ public class Camera {
     // Build Flutter surface to render to
     SurfaceTexture surfaceTexture = flutterTexture.surfaceTexture();
     surfaceTexture.setDefaultBufferSize(previewSize.getWidth(), previewSize.getHeight());
-    Surface flutterSurface = new Surface(surfaceTexture);
+    flutterSurface = surfaceManager.getSurface(surfaceTexture);
     captureRequestBuilder.addTarget(flutterSurface);
 
     List<Surface> remainingSurfaces = Arrays.asList(surfaces);
-    if (templateType != CameraDevice.TEMPLATE_PREVIEW) {
-      // If it is not preview mode, add all surfaces as targets.
-      for (Surface surface : remainingSurfaces) {
+    for (Surface surface : remainingSurfaces) {
+      // The picture surface is only targeted by the still capture requests of takePicture.
+      if (surface != pictureImageReader.getSurface()) {
         captureRequestBuilder.addTarget(surface);
       }
     }
@@ -320,7 +721,19 @@ public class Camera {
               cameraCaptureSession = session;
               captureRequestBuilder.set(
                   CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
-              cameraCaptureSession.setRepeatingRequest(captureRequestBuilder.build(), null, null);
+              if (aeTargetFpsRange != null) {
+                captureRequestBuilder.set(
+                    CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, aeTargetFpsRange);
+              }
+              // A recording can't wait for resumePreview.
+              if (recordingVideo) {
+                previewPaused = false;
+                previewAutoPaused = false;
+              }
+              if (!previewPaused) {
+                cameraCaptureSession.setRepeatingRequest(
+                    captureRequestBuilder.build(), null, cameraHandler);
+              }
               if (onSuccessCallback != null) {
                 onSuccessCallback.run();
               }
@@ -331,6 +744,10 @@ public class Camera {
 
           @Override
           public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
+            if (onFailureCallback != null) {
+              onFailureCallback.run();
+              return;
+            }
             dartMessenger.send(
                 DartMessenger.EventType.ERROR, "Failed to configure camera session.");
           }
@@ -341,21 +758,157 @@ public class Camera {
     surfaceList.add(flutterSurface);
     surfaceList.addAll(remainingSurfaces);
     // Start the session
-    cameraDevice.createCaptureSession(surfaceList, callback, null);
+    cameraDevice.createCaptureSession(surfaceList, callback, cameraHandler);
   }
 
-  public void startVideoRecording(String filePath, Result result) {
+  /**
+   * Records at a fixed high frame rate through a constrained high-speed session. Such a session
+   * only allows the preview and the recorder as outputs, both at the video size.
+   */
+  @RequiresApi(api = Build.VERSION_CODES.M)
+  private void createHighSpeedCaptureSession(
+      Size videoSize, int frameRate, Runnable onSuccessCallback, Surface recorderSurface)
+      throws CameraAccessException {
+    closeCaptureSession();
+
+    captureRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+
+    SurfaceTexture surfaceTexture = flutterTexture.surfaceTexture();
+    surfaceTexture.setDefaultBufferSize(videoSize.getWidth(), videoSize.getHeight());
+    flutterSurface = surfaceManager.getSurface(surfaceTexture);
+    captureRequestBuilder.addTarget(flutterSurface);
+    captureRequestBuilder.addTarget(recorderSurface);
+    captureRequestBuilder.set(
+        CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, new Range<>(frameRate, frameRate));
+
+    CameraCaptureSession.StateCallback callback =
+        new CameraCaptureSession.StateCallback() {
+          @Override
+          public void onConfigured(@NonNull CameraCaptureSession session) {
+            try {
+              if (cameraDevice == null) {
+                dartMessenger.send(
+                    DartMessenger.EventType.ERROR, "The camera was closed during configuration.");
+                return;
+              }
+              cameraCaptureSession = session;
+              previewPaused = false;
+              previewAutoPaused = false;
+              CameraConstrainedHighSpeedCaptureSession highSpeedSession =
+                  (CameraConstrainedHighSpeedCaptureSession) session;
+              highSpeedSession.setRepeatingBurst(
+                  highSpeedSession.createHighSpeedRequestList(captureRequestBuilder.build()),
+                  null,
+                  cameraHandler);
+              onSuccessCallback.run();
+            } catch (CameraAccessException | IllegalStateException | IllegalArgumentException e) {
+              dartMessenger.send(DartMessenger.EventType.ERROR, e.getMessage());
+            }
+          }
+
+          @Override
+          public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
+            dartMessenger.send(
+                DartMessenger.EventType.ERROR, "Failed to configure high-speed camera session.");
+          }
+        };
+
+    cameraDevice.createConstrainedHighSpeedCaptureSession(
+        Arrays.asList(flutterSurface, recorderSurface), callback, cameraHandler);
+  }
+
+  public void startVideoRecording(
+      String filePath, VideoRecordingOptions options, @NonNull final Result result) {
+    // Segments are numbered, later ones are checked as they are created.
+    String firstFilePath =
+        options.isSegmented() ? SegmentedMuxerSink.getSegmentPath(filePath, 0) : filePath;
+    if (new File(firstFilePath).exists()) {
+      result.error("fileExists", "File at path '" + firstFilePath + "' already exists.", null);
+      return;
+    }
+    try {
+      if (options.isSegmented() && options.engine != VideoRecordingOptions.Engine.mediaCodec) {
+        result.error(
+            "videoRecordingFailed", "Segmented recording requires the mediaCodec engine.", null);
+        return;
+      }
+      CamcorderProfile profile = getRecordingProfile(options);
+      if (options.engine == VideoRecordingOptions.Engine.mediaCodec) {
+        int trackCount = options.recordsAudio(enableAudio) ? 2 : 1;
+        SampleSink sink = createSampleSink(filePath, options, trackCount);
+        prepareMediaCodecRecorder(options, profile, sink);
+        recordingVideo = true;
+        startRecordingSession(options, profile, codecRecorder::start);
+      } else {
+        prepareMediaRecorder(filePath, profile, options.recordsAudio(enableAudio));
+        recordingVideo = true;
+        startRecordingSession(options, profile, () -> mediaRecorder.start());
+      }
+      result.success(null);
+    } catch (CameraAccessException
+        | IOException
+        | IllegalArgumentException
+        | IllegalStateException e) {
+      recordingVideo = false;
+      highSpeedProfile = null;
+      releaseMediaCodecRecorder();
+      result.error("videoRecordingFailed", e.getMessage(), null);
+    }
+  }
+
+  /**
+   * Starts encoding into a bounded in-memory ring without writing a file. The buffered history is
+   * written out once {@link #commitPreEvent} is called, followed by the live footage until {@link
+   * #stopVideoRecording}.
+   */
+  public void startPreEventRecording(VideoRecordingOptions options, @NonNull final Result result) {
+    if (options.getPreEventDurationUs() <= 0) {
+      result.error(
+          "videoRecordingFailed", "Pre-event recording requires a positive duration.", null);
+      return;
+    }
+    try {
+      CamcorderProfile profile = getRecordingProfile(options);
+      boolean recordAudio = options.recordsAudio(enableAudio);
+      int bufferBytes = options.getPreEventBufferBytes(profile, recordAudio);
+      // The ring buffer is allocated up front, so it has to fit before it is created.
+      preEventBufferBytes =
+          updateReservation(
+              MemoryBudget.Category.PRE_EVENT_BUFFER, preEventBufferBytes, bufferBytes);
+      preEventSink =
+          new PreEventSampleSink(
+              recordAudio ? 2 : 1,
+              bufferBytes,
+              options.getPreEventDurationUs(),
+              this::requestKeyFrame);
+      prepareMediaCodecRecorder(options, profile, preEventSink);
+      recordingVideo = true;
+      startRecordingSession(options, profile, codecRecorder::start);
+      result.success(null);
+    } catch (CameraAccessException
+        | IOException
+        | IllegalArgumentException
+        | IllegalStateException e) {
+      recordingVideo = false;
+      highSpeedProfile = null;
+      releaseMediaCodecRecorder();
+      result.error("videoRecordingFailed", e.getMessage(), null);
+    }
+  }
+
+  public void commitPreEvent(String filePath, @NonNull final Result result) {
+    if (preEventSink == null) {
+      result.error("videoRecordingFailed", "No pre-event recording is in progress.", null);
+      return;
+    }
     if (new File(filePath).exists()) {
       result.error("fileExists", "File at path '" + filePath + "' already exists.", null);
       return;
     }
     try {
-      prepareMediaRecorder(filePath);
-      recordingVideo = true;
-      createCaptureSession(
-          CameraDevice.TEMPLATE_RECORD, () -> mediaRecorder.start(), mediaRecorder.getSurface());
+      preEventSink.commit(filePath, getMediaOrientation());
       result.success(null);
-    } catch (CameraAccessException | IOException e) {
+    } catch (IOException | IllegalStateException e) {
       result.error("videoRecordingFailed", e.getMessage(), null);
     }
   }
@@ -367,16 +920,41 @@ public class Camera {
     }
 
     try {
-      recordingVideo = false;
-      mediaRecorder.stop();
-      mediaRecorder.reset();
-      startPreview();
+      stopRecording();
       result.success(null);
     } catch (CameraAccessException | IllegalStateException e) {
       result.error("videoRecordingFailed", e.getMessage(), null);
     }
   }
 
+  private void stopRecordingAfterError() {
+    try {
+      stopRecording();
+    } catch (CameraAccessException | IllegalStateException e) {
+      dartMessenger.send(DartMessenger.EventType.ERROR, e.getMessage());
+    }
+  }
+
+  private void stopRecording() throws CameraAccessException {
+    recordingVideo = false;
+    if (codecRecorder != null) {
+      try {
+        codecRecorder.stop();
+      } finally {
+        releaseMediaCodecRecorder();
+      }
+    } else {
+      mediaRecorder.stop();
+      mediaRecorder.reset();
+    }
+    highSpeedProfile = null;
+    if (streamingImages) {
+      createImageStreamSession();
+    } else {
+      startPreview();
+    }
+  }
+
   public void pauseVideoRecording(@NonNull final Result result) {
     if (!recordingVideo) {
       result.success(null);
@@ -384,7 +962,9 @@ public class Camera {
     }
 
     try {
-      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+      if (codecRecorder != null) {
+        codecRecorder.pause();
+      } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
         mediaRecorder.pause();
       } else {
         result.error("videoRecordingFailed", "pauseVideoRecording requires Android API +24.", null);
@@ -405,7 +985,9 @@ public class Camera {
     }
 
     try {
-      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+      if (codecRecorder != null) {
+        codecRecorder.resume();
+      } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
         mediaRecorder.resume();
       } else {
         result.error(
@@ -420,59 +1002,148 @@ public class Camera {
     result.success(null);
   }
 
+  /**
+   * Stops the repeating request but keeps the device and the session open, so that {@link
+   * #resumePreview} is quick. The preview and the image stream stand still until then.
+   */
+  public void pausePreview() throws CameraAccessException {
+    if (recordingVideo) {
+      throw new IllegalStateException("The preview can't be paused while recording.");
+    }
+    previewAutoPaused = false;
+    if (previewPaused) {
+      return;
+    }
+    previewPaused = true;
+    if (cameraCaptureSession != null) {
+      cameraCaptureSession.stopRepeating();
+    }
+  }
+
+  public void resumePreview() throws CameraAccessException {
+    previewAutoPaused = false;
+    if (!previewPaused) {
+      return;
+    }
+    previewPaused = false;
+    if (cameraCaptureSession != null) {
+      cameraCaptureSession.setRepeatingRequest(captureRequestBuilder.build(), null, cameraHandler);
+    }
+  }
+
+  /** Pauses a running preview that isn't recording, until {@link #autoResumePreview}. */
+  void autoPausePreview() throws CameraAccessException {
+    if (previewPaused || recordingVideo) {
+      return;
+    }
+    pausePreview();
+    previewAutoPaused = true;
+  }
+
+  /** Resumes the preview if {@link #autoPausePreview} paused it and nothing else touched it. */
+  void autoResumePreview() throws CameraAccessException {
+    if (previewAutoPaused) {
+      resumePreview();
+    }
+  }
+
   public void startPreview() throws CameraAccessException {
     createCaptureSession(CameraDevice.TEMPLATE_PREVIEW, pictureImageReader.getSurface());
   }
 
+  /**
+   * Starts streaming preview frames. When a recording is running, the image stream is added to its
+   * session, at a lower resolution if the hardware level can't sustain it at the preview size.
+   */
   public void startPreviewWithImageStream(EventChannel imageStreamChannel)
       throws CameraAccessException {
-    createCaptureSession(CameraDevice.TEMPLATE_RECORD, imageStreamReader.getSurface());
+    streamingImages = true;
+    if (recordingVideo) {
+      createRecordingSession(null);
+    } else {
+      createImageStreamSession();
+    }
 
     imageStreamChannel.setStreamHandler(
         new EventChannel.StreamHandler() {
+          // The stream handler is called on the main thread.
           @Override
-          public void onListen(Object o, EventChannel.EventSink imageStreamSink) {
-            setImageStreamImageAvailableListener(imageStreamSink);
+          public void onListen(Object o, EventChannel.EventSink sink) {
+            cameraHandler.post(
+                () -> {
+                  imageStreamSink = sink;
+                  updateImageStreamListener();
+                });
           }
 
           @Override
           public void onCancel(Object o) {
-            imageStreamReader.setOnImageAvailableListener(null, null);
+            cameraHandler.post(
+                () -> {
+                  imageStreamSink = null;
+                  if (imageStreamReader != null) {
+                    updateImageStreamListener();
+                  }
+                });
           }
         });
   }
 
-  private void setImageStreamImageAvailableListener(final EventChannel.EventSink imageStreamSink) {
+  public void stopImageStream() throws CameraAccessException {
+    streamingImages = false;
+    streamSnapshot.failPendingRequests("The image stream was stopped.");
+    if (recordingVideo) {
+      createRecordingSession(null);
+    } else {
+      startPreview();
+    }
+  }
+
+  /**
+   * Saves the next frame of the image stream as a JPEG, without a still capture and without
+   * touching the capture session. Needs a running image stream.
+   */
+  public void snapshotFromStream(int quality, String filePath, @NonNull final Result result) {
+    final File file = new File(filePath);
+    if (file.exists()) {
+      result.error(
+          "fileExists", "File at path '" + filePath + "' already exists. Cannot overwrite.", null);
+      return;
+    }
+    if (quality < 0 || quality > 100) {
+      result.error("captureFailure", "The quality has to be between 0 and 100.", null);
+      return;
+    }
+    if (!streamingImages || previewPaused || (recordingVideo && highSpeedProfile != null)) {
+      result.error("captureFailure", "Snapshots need a running image stream.", null);
+      return;
+    }
+    streamSnapshot.addRequest(file, quality, result);
+    updateImageStreamListener();
+  }
+
+  // Listens to the stream reader only while frames have somewhere to go.
+  private void updateImageStreamListener() {
+    imageStreamPipeline.setSink(imageStreamSink);
+    if (imageStreamSink == null && !streamSnapshot.hasPendingRequests()) {
+      imageStreamReader.setOnImageAvailableListener(null, null);
+      return;
+    }
     imageStreamReader.setOnImageAvailableListener(
         reader -> {
           Image img = reader.acquireLatestImage();
           if (img == null) return;
 
-          List<Map<String, Object>> planes = new ArrayList<>();
-          for (Image.Plane plane : img.getPlanes()) {
-            ByteBuffer buffer = plane.getBuffer();
-
-            byte[] bytes = new byte[buffer.remaining()];
-            buffer.get(bytes, 0, bytes.length);
-
-            Map<String, Object> planeBuffer = new HashMap<>();
-            planeBuffer.put("bytesPerRow", plane.getRowStride());
-            planeBuffer.put("bytesPerPixel", plane.getPixelStride());
-            planeBuffer.put("bytes", bytes);
-
-            planes.add(planeBuffer);
+          streamSnapshot.onFrame(img);
+          if (imageStreamSink != null) {
+            imageStreamPipeline.offer(img);
           }
-
-          Map<String, Object> imageBuffer = new HashMap<>();
-          imageBuffer.put("width", img.getWidth());
-          imageBuffer.put("height", img.getHeight());
-          imageBuffer.put("format", img.getFormat());
-          imageBuffer.put("planes", planes);
-
-          imageStreamSink.success(imageBuffer);
           img.close();
+          if (imageStreamSink == null) {
+            updateImageStreamListener();
+          }
         },
-        null);
+        cameraHandler);
   }
 
   private void closeCaptureSession() {
@@ -483,7 +1154,13 @@ public class Camera {
   }
 
   public void close() {
+    if (openResult != null) {
+      failOpen("The camera was closed while it was opened.");
+      return;
+    }
+    finishInterruptedRecording();
     closeCaptureSession();
+    streamSnapshot.failPendingRequests("The camera was closed.");
 
     if (cameraDevice != null) {
       cameraDevice.close();
@@ -502,12 +1179,51 @@ public class Camera {
       mediaRecorder.release();
       mediaRecorder = null;
     }
+    releaseMediaCodecRecorder();
+    previewPaused = false;
+    previewAutoPaused = false;
+    pictureReaderBytes =
+        updateReservation(MemoryBudget.Category.PICTURE_READER, pictureReaderBytes, 0);
+    streamReaderBytes =
+        updateReservation(MemoryBudget.Category.STREAM_READER, streamReaderBytes, 0);
+    surfaceManager.release();
+    flutterSurface = null;
+  }
+
+  /**
+   * Stops a recording the camera is closed during, while the session still feeds it, so what was
+   * recorded so far is written out, and tells Dart the recording ended early.
+   */
+  private void finishInterruptedRecording() {
+    if (!recordingVideo) {
+      return;
+    }
+    recordingVideo = false;
+    highSpeedProfile = null;
+    try {
+      if (codecRecorder != null) {
+        codecRecorder.stop();
+      } else {
+        mediaRecorder.stop();
+      }
+      dartMessenger.send(
+          DartMessenger.EventType.ERROR, "The camera was closed, the recording was stopped early.");
+    } catch (RuntimeException e) {
+      // MediaRecorder throws if it received no frames, the file is unusable then.
+      dartMessenger.send(
+          DartMessenger.EventType.ERROR,
+          "The camera was closed, the recording failed: " + e.getMessage());
+    }
   }
 
   public void dispose() {
     close();
-    flutterTexture.release();
     orientationEventListener.disable();
+    streamSnapshot.release();
+    // Textures have to be unregistered on the platform thread.
+    mainHandler.post(flutterTexture::release);
+    // Lets the device and session callbacks that are already queued run.
+    cameraThread.quitSafely();
   }
 
   private int getMediaOrientation() {
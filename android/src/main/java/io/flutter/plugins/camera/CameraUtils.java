@@ -3,21 +3,29 @@ package io.flutter.plugins.camera;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.CamcorderProfile;
+import android.os.Build;
+import android.util.Range;
 import android.util.Size;
+import androidx.annotation.Nullable;
 import io.flutter.plugins.camera.Camera.ResolutionPreset;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /** Provides various utilities for camera. */
 public final class CameraUtils {
@@ -34,6 +42,101 @@ public final class CameraUtils {
     return new Size(profile.videoFrameWidth, profile.videoFrameHeight);
   }
 
+  /**
+   * Picks the preview size and the image stream size, neither larger than {@code maxPreviewSize},
+   * that the camera guarantees next to a still capture at {@code captureSize} and that sustain
+   * {@code fps}. Returns null if there are none.
+   */
+  @Nullable
+  static Size[] computePreviewAndStreamSizes(
+      CameraCharacteristics characteristics,
+      String cameraName,
+      Size maxPreviewSize,
+      Size captureSize,
+      int fps) {
+    StreamConfigurationMap streamConfigurationMap =
+        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+    CamcorderProfile recordProfile =
+        getBestAvailableCamcorderProfileForResolutionPreset(cameraName, ResolutionPreset.max);
+    // The PREVIEW class is bound by the display as well, but never exceeds 1080p.
+    StreamSizeSelector selector =
+        new StreamSizeSelector(
+            getHardwareLevel(characteristics),
+            1920,
+            1080,
+            recordProfile.videoFrameWidth,
+            recordProfile.videoFrameHeight);
+
+    List<StreamSizeSelector.Candidate> previewCandidates = new ArrayList<>();
+    for (Size size : streamConfigurationMap.getOutputSizes(SurfaceTexture.class)) {
+      if (fitsWithin(size, maxPreviewSize)) {
+        previewCandidates.add(
+            new StreamSizeSelector.Candidate(
+                size.getWidth(),
+                size.getHeight(),
+                streamConfigurationMap.getOutputMinFrameDuration(SurfaceTexture.class, size),
+                0));
+      }
+    }
+    List<StreamSizeSelector.Candidate> streamCandidates = new ArrayList<>();
+    for (Size size : streamConfigurationMap.getOutputSizes(ImageFormat.YUV_420_888)) {
+      if (fitsWithin(size, maxPreviewSize)) {
+        streamCandidates.add(
+            new StreamSizeSelector.Candidate(
+                size.getWidth(),
+                size.getHeight(),
+                streamConfigurationMap.getOutputMinFrameDuration(ImageFormat.YUV_420_888, size),
+                streamConfigurationMap.getOutputStallDuration(ImageFormat.YUV_420_888, size)));
+      }
+    }
+    List<StreamSizeSelector.Candidate> captureCandidates =
+        Collections.singletonList(
+            new StreamSizeSelector.Candidate(
+                captureSize.getWidth(), captureSize.getHeight(), 0, 0));
+
+    List<StreamSizeSelector.Candidate> chosen =
+        selector.select(
+            Arrays.asList(
+                new StreamSizeSelector.Output(
+                    StreamSizeSelector.Format.PRIVATE, true, previewCandidates),
+                new StreamSizeSelector.Output(
+                    StreamSizeSelector.Format.YUV, true, streamCandidates),
+                new StreamSizeSelector.Output(
+                    StreamSizeSelector.Format.JPEG, false, captureCandidates)),
+            fps);
+    if (chosen == null) {
+      return null;
+    }
+    return new Size[] {
+      new Size(chosen.get(0).width, chosen.get(0).height),
+      new Size(chosen.get(1).width, chosen.get(1).height)
+    };
+  }
+
+  private static boolean fitsWithin(Size size, Size maxSize) {
+    return size.getWidth() <= maxSize.getWidth() && size.getHeight() <= maxSize.getHeight();
+  }
+
+  private static StreamSizeSelector.HardwareLevel getHardwareLevel(
+      CameraCharacteristics characteristics) {
+    Integer hardwareLevel =
+        characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+    if (hardwareLevel == null) {
+      return StreamSizeSelector.HardwareLevel.LEGACY;
+    }
+    switch (hardwareLevel) {
+      case CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY:
+        return StreamSizeSelector.HardwareLevel.LEGACY;
+      case CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_FULL:
+        return StreamSizeSelector.HardwareLevel.FULL;
+      case CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_3:
+        return StreamSizeSelector.HardwareLevel.LEVEL_3;
+      default:
+        // LIMITED, and EXTERNAL which guarantees the LIMITED combinations.
+        return StreamSizeSelector.HardwareLevel.LIMITED;
+    }
+  }
+
   static Size computeBestCaptureSize(StreamConfigurationMap streamConfigurationMap) {
     // For still image captures, we use the largest available size.
     return Collections.max(
@@ -41,6 +144,150 @@ public final class CameraUtils {
         new CompareSizesByArea());
   }
 
+  /**
+   * Picks the size of the image stream that runs next to a recording. Only FULL and better devices
+   * guarantee a preview sized YUV stream on top of the preview and the recorder, so the stream is
+   * capped to VGA on LIMITED and to QVGA on LEGACY devices.
+   */
+  static Size computeRecordingStreamSize(CameraCharacteristics characteristics, Size previewSize) {
+    Integer hardwareLevel =
+        characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+    Size maxSize;
+    if (hardwareLevel == null
+        || hardwareLevel == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+      maxSize = new Size(320, 240);
+    } else if (hardwareLevel == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_FULL
+        || hardwareLevel == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_3) {
+      return previewSize;
+    } else {
+      maxSize = new Size(640, 480);
+    }
+    if (previewSize.getWidth() <= maxSize.getWidth()
+        && previewSize.getHeight() <= maxSize.getHeight()) {
+      return previewSize;
+    }
+    Size streamSize = getLargestStreamSizeBelow(characteristics, maxSize, true);
+    return streamSize != null ? streamSize : previewSize;
+  }
+
+  /**
+   * Returns the next YUV output size below {@code size} to fall back to when a session with the
+   * image stream at {@code size} can't be configured, or null if there is none.
+   */
+  @Nullable
+  static Size computeSmallerStreamSize(CameraCharacteristics characteristics, Size size) {
+    return getLargestStreamSizeBelow(characteristics, size, false);
+  }
+
+  @Nullable
+  private static Size getLargestStreamSizeBelow(
+      CameraCharacteristics characteristics, Size maxSize, boolean inclusive) {
+    StreamConfigurationMap streamConfigurationMap =
+        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+    CompareSizesByArea compareSizesByArea = new CompareSizesByArea();
+    Size largest = null;
+    for (Size size : streamConfigurationMap.getOutputSizes(ImageFormat.YUV_420_888)) {
+      boolean fits =
+          size.getWidth() <= maxSize.getWidth()
+              && size.getHeight() <= maxSize.getHeight()
+              && (inclusive || compareSizesByArea.compare(size, maxSize) < 0);
+      if (fits && (largest == null || compareSizesByArea.compare(size, largest) > 0)) {
+        largest = size;
+      }
+    }
+    return largest;
+  }
+
+  static boolean supportsHighSpeedVideo(CameraCharacteristics characteristics) {
+    int[] capabilities = characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+    if (capabilities == null) {
+      return false;
+    }
+    for (int capability : capabilities) {
+      if (capability
+          == CameraMetadata.REQUEST_AVAILABLE_CAPABILITIES_CONSTRAINED_HIGH_SPEED_VIDEO) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static List<Map<String, Object>> getHighSpeedVideoConfigurations(
+      CameraCharacteristics characteristics) {
+    List<Map<String, Object>> configurations = new ArrayList<>();
+    if (!supportsHighSpeedVideo(characteristics)) {
+      return configurations;
+    }
+    StreamConfigurationMap streamConfigurationMap =
+        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+    for (Size size : streamConfigurationMap.getHighSpeedVideoSizes()) {
+      for (Range<Integer> fpsRange : streamConfigurationMap.getHighSpeedVideoFpsRangesFor(size)) {
+        Map<String, Object> configuration = new HashMap<>();
+        configuration.put("width", size.getWidth());
+        configuration.put("height", size.getHeight());
+        configuration.put("minFps", fpsRange.getLower());
+        configuration.put("maxFps", fpsRange.getUpper());
+        configurations.add(configuration);
+      }
+    }
+    return configurations;
+  }
+
+  /** Lists the frame rate ranges auto exposure can target, as {minFps, maxFps} maps. */
+  static List<Map<String, Object>> getFpsRanges(CameraCharacteristics characteristics) {
+    List<Map<String, Object>> ranges = new ArrayList<>();
+    Range<Integer>[] fpsRanges =
+        characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+    if (fpsRanges == null) {
+      return ranges;
+    }
+    for (Range<Integer> fpsRange : fpsRanges) {
+      Map<String, Object> range = new HashMap<>();
+      range.put("minFps", fpsRange.getLower());
+      range.put("maxFps", fpsRange.getUpper());
+      ranges.add(range);
+    }
+    return ranges;
+  }
+
+  static boolean isAvailableFpsRange(CameraCharacteristics characteristics, Range<Integer> range) {
+    Range<Integer>[] fpsRanges =
+        characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+    return fpsRanges != null && Arrays.asList(fpsRanges).contains(range);
+  }
+
+  /**
+   * Picks the size to record high-speed video at {@code frameRate} with. Recording requires a fixed
+   * fps range, so only sizes that list {@code [frameRate, frameRate]} qualify.
+   *
+   * @param requestedSize the size asked for by the caller, or null for the largest one.
+   */
+  static Size computeHighSpeedVideoSize(
+      CameraCharacteristics characteristics, int frameRate, @Nullable Size requestedSize) {
+    if (!supportsHighSpeedVideo(characteristics)) {
+      throw new IllegalArgumentException("This camera doesn't support high-speed video.");
+    }
+    StreamConfigurationMap streamConfigurationMap =
+        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+    Range<Integer> fixedRange = new Range<>(frameRate, frameRate);
+    List<Size> candidates = new ArrayList<>();
+    for (Size size : streamConfigurationMap.getHighSpeedVideoSizes()) {
+      if (Arrays.asList(streamConfigurationMap.getHighSpeedVideoFpsRangesFor(size))
+              .contains(fixedRange)
+          && (requestedSize == null || requestedSize.equals(size))) {
+        candidates.add(size);
+      }
+    }
+    if (candidates.isEmpty()) {
+      throw new IllegalArgumentException(
+          "No high-speed video size supports "
+              + frameRate
+              + " fps"
+              + (requestedSize == null ? "." : " at " + requestedSize + "."));
+    }
+    return Collections.max(candidates, new CompareSizesByArea());
+  }
+
   public static List<Map<String, Object>> getAvailableCameras(Activity activity)
       throws CameraAccessException {
     CameraManager cameraManager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
@@ -65,11 +312,95 @@ public final class CameraUtils {
           details.put("lensFacing", "external");
           break;
       }
+      details.put("highSpeedVideoConfigurations", getHighSpeedVideoConfigurations(characteristics));
+      details.put("fpsRanges", getFpsRanges(characteristics));
       cameras.add(details);
     }
+    cameras.addAll(UsbCamera.getAvailableCameras(activity));
+    return cameras;
+  }
+
+  /**
+   * Returns the combinations of camera ids that can stream at the same time, or null if the
+   * platform can't tell, before API 30.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  private static Set<Set<String>> getConcurrentCameraIds(CameraManager cameraManager)
+      throws CameraAccessException {
+    if (Build.VERSION.SDK_INT < 30) {
+      return null;
+    }
+    // Looked up reflectively because the plugin compiles against an SDK that predates it.
+    try {
+      Method method = CameraManager.class.getMethod("getConcurrentCameraIds");
+      return (Set<Set<String>>) method.invoke(cameraManager);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof CameraAccessException) {
+        throw (CameraAccessException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      return null;
+    }
+  }
+
+  /** Returns the camera combinations that can stream concurrently, or null if unknown. */
+  @Nullable
+  static List<List<String>> getConcurrentCameras(Activity activity) throws CameraAccessException {
+    CameraManager cameraManager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
+    Set<Set<String>> combinations = getConcurrentCameraIds(cameraManager);
+    if (combinations == null) {
+      return null;
+    }
+    List<List<String>> cameras = new ArrayList<>();
+    for (Set<String> combination : combinations) {
+      cameras.add(new ArrayList<>(combination));
+    }
     return cameras;
   }
 
+  /**
+   * Returns whether the cameras in {@code cameraNames} can stream at the same time. Without
+   * information from the platform opening them is attempted, and fails with a camera error if the
+   * device can't.
+   */
+  static boolean canOpenConcurrently(Activity activity, Collection<String> cameraNames)
+      throws CameraAccessException {
+    if (cameraNames.size() < 2) {
+      return true;
+    }
+    CameraManager cameraManager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
+    Set<Set<String>> combinations = getConcurrentCameraIds(cameraManager);
+    if (combinations == null) {
+      return true;
+    }
+    for (Set<String> combination : combinations) {
+      if (combination.containsAll(cameraNames)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static CamcorderProfile getHighSpeedCamcorderProfile(
+      String cameraName, Size videoSize, int frameRate) {
+    int cameraId = Integer.parseInt(cameraName);
+    CamcorderProfile profile =
+        CamcorderProfile.hasProfile(cameraId, CamcorderProfile.QUALITY_HIGH_SPEED_HIGH)
+            ? CamcorderProfile.get(cameraId, CamcorderProfile.QUALITY_HIGH_SPEED_HIGH)
+            : CamcorderProfile.get(cameraId, CamcorderProfile.QUALITY_HIGH);
+    // Scale the bit rate with the number of pixels encoded per second.
+    long pixelRate = (long) videoSize.getWidth() * videoSize.getHeight() * frameRate;
+    long profilePixelRate =
+        (long) profile.videoFrameWidth * profile.videoFrameHeight * profile.videoFrameRate;
+    profile.videoBitRate = (int) (profile.videoBitRate * pixelRate / profilePixelRate);
+    profile.videoFrameWidth = videoSize.getWidth();
+    profile.videoFrameHeight = videoSize.getHeight();
+    profile.videoFrameRate = frameRate;
+    return profile;
+  }
+
   static CamcorderProfile getBestAvailableCamcorderProfileForResolutionPreset(
       String cameraName, ResolutionPreset preset) {
     int cameraId = Integer.parseInt(cameraName);
@@ -1,21 +1,79 @@
 package io.flutter.plugins.camera;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import androidx.annotation.Nullable;
 import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.EventChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 class DartMessenger {
+  /** The platform thread events are delivered on, replaced in tests. */
+  interface MainThread {
+    boolean isCurrent();
+
+    void postDelayed(Runnable runnable, long delayMillis);
+
+    long uptimeMillis();
+  }
+
   @Nullable private EventChannel.EventSink eventSink;
+  private final MainThread mainThread;
+
+  // The fields below are only accessed on the main thread.
+  private long batchIntervalMs;
+  private final List<Map<String, String>> pendingEvents = new ArrayList<>();
+  private boolean flushScheduled;
+  private final long[] minIntervalsMs = new long[EventType.values().length];
+  private final long[] lastSentMs = new long[EventType.values().length];
+  // Rate limited events waiting for their interval to end, in order.
+  private final Map<EventType, List<Map<String, String>>> heldEvents =
+      new EnumMap<>(EventType.class);
 
   enum EventType {
-    ERROR,
-    CAMERA_CLOSING,
+    ERROR("error"),
+    CAMERA_CLOSING("camera_closing"),
+    VIDEO_SEGMENT_FINISHED("video_segment_finished");
+
+    // The name sent to Dart, computed once instead of per event.
+    final String value;
+    // The event without details, shared by all events that don't have any.
+    final Map<String, String> event;
+
+    EventType(String value) {
+      this.value = value;
+      this.event = Collections.singletonMap("eventType", value);
+    }
+
+    Map<String, String> createEvent(String key, String details) {
+      Map<String, String> event = new HashMap<>(4);
+      event.put("eventType", value);
+      event.put(key, details);
+      return event;
+    }
+
+    // Errors and closing events are sent right away, in order, and never dropped.
+    boolean isCritical() {
+      return this == ERROR || this == CAMERA_CLOSING;
+    }
   }
 
   DartMessenger(BinaryMessenger messenger, long eventChannelId) {
+    this(messenger, eventChannelId, new LooperMainThread());
+  }
+
+  DartMessenger(BinaryMessenger messenger, long eventChannelId, MainThread mainThread) {
+    this.mainThread = mainThread;
+    // Nothing was sent yet.
+    Arrays.fill(lastSentMs, -1);
     new EventChannel(messenger, "flutter.io/cameraPlugin/cameraEvents" + eventChannelId)
         .setStreamHandler(
             new EventChannel.StreamHandler() {
@@ -31,21 +89,182 @@ class DartMessenger {
             });
   }
 
+  /**
+   * Buffers events and sends them every {@code intervalMs} as one "batch" event that lists them, or
+   * one by one when the interval is zero. Events keep their order either way. Errors and closing
+   * events aren't buffered, they send the buffered events ahead of them.
+   */
+  void setBatchInterval(long intervalMs) {
+    runOnMainThread(
+        () -> {
+          if (intervalMs <= 0) {
+            flush();
+          }
+          batchIntervalMs = Math.max(0, intervalMs);
+        });
+  }
+
+  /**
+   * Holds back events of {@code eventType} that follow the previous one sent by less than {@code
+   * minIntervalMs}, and sends them together once the interval ended. Nothing is dropped, so events
+   * like finished segments still reach Dart. Zero removes the limit. Errors and closing events
+   * aren't limited, they send the held events ahead of them.
+   */
+  void setRateLimit(EventType eventType, long minIntervalMs) {
+    runOnMainThread(() -> minIntervalsMs[eventType.ordinal()] = Math.max(0, minIntervalMs));
+  }
+
   void sendCameraClosingEvent() {
     send(EventType.CAMERA_CLOSING, null);
   }
 
+  void sendVideoSegmentFinishedEvent(String filePath) {
+    sendEvent(
+        EventType.VIDEO_SEGMENT_FINISHED,
+        EventType.VIDEO_SEGMENT_FINISHED.createEvent("filePath", filePath));
+  }
+
   void send(EventType eventType, @Nullable String description) {
+    // Only errors have a description.
+    sendEvent(
+        eventType,
+        eventType == EventType.ERROR && !TextUtils.isEmpty(description)
+            ? eventType.createEvent("errorDescription", description)
+            : eventType.event);
+  }
+
+  private void sendEvent(EventType eventType, Map<String, String> event) {
+    // Cameras send events from their own threads, but the sink only accepts them on the main one.
+    if (!mainThread.isCurrent()) {
+      mainThread.postDelayed(() -> sendEvent(eventType, event), 0);
+      return;
+    }
     if (eventSink == null) {
       return;
     }
 
-    Map<String, String> event = new HashMap<>();
-    event.put("eventType", eventType.toString().toLowerCase());
-    // Only errors have a description.
-    if (eventType == EventType.ERROR && !TextUtils.isEmpty(description)) {
-      event.put("errorDescription", description);
+    if (eventType.isCritical()) {
+      for (EventType heldType : new ArrayList<>(heldEvents.keySet())) {
+        releaseHeldEvents(heldType, true);
+      }
+      flush();
+      eventSink.success(event);
+      return;
+    }
+    List<Map<String, String>> held = heldEvents.get(eventType);
+    if (held != null) {
+      held.add(event);
+      return;
+    }
+    long delayMs = getRateLimitDelayMs(eventType);
+    if (delayMs > 0) {
+      held = new ArrayList<>();
+      held.add(event);
+      heldEvents.put(eventType, held);
+      mainThread.postDelayed(() -> releaseHeldEvents(eventType, false), delayMs);
+      return;
+    }
+    if (batchIntervalMs == 0) {
+      eventSink.success(event);
+      return;
+    }
+    addPendingEvents(Collections.singletonList(event));
+  }
+
+  /** Returns how long events of {@code eventType} wait, counting them as sent if they don't. */
+  private long getRateLimitDelayMs(EventType eventType) {
+    int type = eventType.ordinal();
+    if (minIntervalsMs[type] == 0) {
+      return 0;
+    }
+    long now = mainThread.uptimeMillis();
+    if (lastSentMs[type] >= 0 && now - lastSentMs[type] < minIntervalsMs[type]) {
+      return lastSentMs[type] + minIntervalsMs[type] - now;
+    }
+    lastSentMs[type] = now;
+    return 0;
+  }
+
+  /**
+   * Sends the held events of {@code eventType}, as one batch if there are several. Unless {@code
+   * early}, waits for the end of the interval, which can move when the events are released early
+   * and new ones are held.
+   */
+  private void releaseHeldEvents(EventType eventType, boolean early) {
+    if (!heldEvents.containsKey(eventType)) {
+      return;
+    }
+    int type = eventType.ordinal();
+    long now = mainThread.uptimeMillis();
+    long delayMs = lastSentMs[type] + minIntervalsMs[type] - now;
+    if (!early && delayMs > 0) {
+      mainThread.postDelayed(() -> releaseHeldEvents(eventType, false), delayMs);
+      return;
+    }
+    List<Map<String, String>> held = heldEvents.remove(eventType);
+    lastSentMs[type] = now;
+    if (eventSink == null) {
+      return;
+    }
+    if (batchIntervalMs == 0 && held.size() == 1) {
+      eventSink.success(held.get(0));
+      return;
+    }
+    addPendingEvents(held);
+    if (batchIntervalMs == 0) {
+      flush();
+    }
+  }
+
+  private void addPendingEvents(List<Map<String, String>> events) {
+    pendingEvents.addAll(events);
+    if (!flushScheduled && batchIntervalMs > 0) {
+      flushScheduled = true;
+      mainThread.postDelayed(this::flush, batchIntervalMs);
+    }
+  }
+
+  private void flush() {
+    flushScheduled = false;
+    if (pendingEvents.isEmpty()) {
+      return;
+    }
+    Map<String, Object> batch = new HashMap<>();
+    batch.put("eventType", "batch");
+    batch.put("events", new ArrayList<>(pendingEvents));
+    pendingEvents.clear();
+    if (eventSink != null) {
+      eventSink.success(batch);
+    }
+  }
+
+  private void runOnMainThread(Runnable runnable) {
+    if (mainThread.isCurrent()) {
+      runnable.run();
+    } else {
+      mainThread.postDelayed(runnable, 0);
+    }
+  }
+
+  private static final class LooperMainThread implements MainThread {
+    @Nullable private Handler handler;
+
+    @Override
+    public boolean isCurrent() {
+      return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    @Override
+    public synchronized void postDelayed(Runnable runnable, long delayMillis) {
+      if (handler == null) {
+        handler = new Handler(Looper.getMainLooper());
+      }
+      handler.postDelayed(runnable, delayMillis);
+    }
+
+    @Override
+    public long uptimeMillis() {
+      return SystemClock.uptimeMillis();
     }
-    eventSink.success(event);
   }
 }
@@ -0,0 +1,47 @@
+package io.flutter.plugins.camera;
+
+import androidx.annotation.Nullable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed set of reusable frame buffers shared between a producer thread and the platform thread.
+ *
+ * <p>Each frame is an array of planes of fixed sizes. When every frame is still in use, {@link
+ * #acquire} returns null and the producer is expected to drop the frame, so a slow consumer can't
+ * make memory use grow.
+ */
+final class FrameBufferPool {
+  private final ArrayBlockingQueue<byte[][]> freeFrames;
+  private final AtomicLong droppedFrames = new AtomicLong();
+
+  FrameBufferPool(int frameCount, int... planeSizes) {
+    freeFrames = new ArrayBlockingQueue<>(frameCount);
+    for (int i = 0; i < frameCount; i++) {
+      byte[][] planes = new byte[planeSizes.length][];
+      for (int plane = 0; plane < planeSizes.length; plane++) {
+        planes[plane] = new byte[planeSizes[plane]];
+      }
+      freeFrames.add(planes);
+    }
+  }
+
+  /** Returns a free frame, or null if all of them are in use. */
+  @Nullable
+  byte[][] acquire() {
+    byte[][] frame = freeFrames.poll();
+    if (frame == null) {
+      droppedFrames.incrementAndGet();
+    }
+    return frame;
+  }
+
+  void release(byte[][] frame) {
+    freeFrames.offer(frame);
+  }
+
+  /** Returns how many frames {@link #acquire} couldn't serve. */
+  long getDroppedFrames() {
+    return droppedFrames.get();
+  }
+}
@@ -0,0 +1,61 @@
+package io.flutter.plugins.camera;
+
+import android.media.Image;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Converts image stream frames to the map sent to Dart. */
+final class ImageStreamFrames {
+  private ImageStreamFrames() {}
+
+  static Map<String, Object> toMap(Image image) {
+    Image.Plane[] planes = image.getPlanes();
+    ByteBuffer[] buffers = new ByteBuffer[planes.length];
+    int[] rowStrides = new int[planes.length];
+    int[] pixelStrides = new int[planes.length];
+    for (int i = 0; i < planes.length; i++) {
+      buffers[i] = planes[i].getBuffer();
+      rowStrides[i] = planes[i].getRowStride();
+      pixelStrides[i] = planes[i].getPixelStride();
+    }
+    return toMap(
+        image.getWidth(), image.getHeight(), image.getFormat(), buffers, rowStrides, pixelStrides);
+  }
+
+  /**
+   * Copies the remaining bytes of each plane buffer into the map. Kept free of {@link Image} so it
+   * can be benchmarked on the host JVM.
+   */
+  static Map<String, Object> toMap(
+      int width,
+      int height,
+      int format,
+      ByteBuffer[] planeBuffers,
+      int[] rowStrides,
+      int[] pixelStrides) {
+    List<Map<String, Object>> planes = new ArrayList<>();
+    for (int i = 0; i < planeBuffers.length; i++) {
+      ByteBuffer buffer = planeBuffers[i];
+
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes, 0, bytes.length);
+
+      Map<String, Object> planeBuffer = new HashMap<>();
+      planeBuffer.put("bytesPerRow", rowStrides[i]);
+      planeBuffer.put("bytesPerPixel", pixelStrides[i]);
+      planeBuffer.put("bytes", bytes);
+
+      planes.add(planeBuffer);
+    }
+
+    Map<String, Object> imageBuffer = new HashMap<>();
+    imageBuffer.put("width", width);
+    imageBuffer.put("height", height);
+    imageBuffer.put("format", format);
+    imageBuffer.put("planes", planes);
+    return imageBuffer;
+  }
+}
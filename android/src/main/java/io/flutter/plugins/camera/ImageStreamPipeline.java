@@ -0,0 +1,104 @@
+package io.flutter.plugins.camera;
+
+import android.media.Image;
+import androidx.annotation.Nullable;
+import io.flutter.plugin.common.EventChannel;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies image stream frames on the producer thread and hands them to the event sink on the main
+ * thread.
+ *
+ * <p>At most {@code maxFramesInFlight} frames wait for the main thread at a time, and only as long
+ * as the {@link MemoryBudget} has room for them. Frames offered beyond that are dropped before they
+ * are copied, so a busy main thread can't make memory use grow.
+ */
+final class ImageStreamPipeline {
+  private final Executor mainExecutor;
+  private final MemoryBudget memoryBudget;
+  private final int maxFramesInFlight;
+  private final AtomicInteger framesInFlight = new AtomicInteger();
+  private final AtomicLong deliveredFrames = new AtomicLong();
+  private final AtomicLong droppedFrames = new AtomicLong();
+  @Nullable private volatile EventChannel.EventSink sink;
+
+  ImageStreamPipeline(Executor mainExecutor, MemoryBudget memoryBudget, int maxFramesInFlight) {
+    this.mainExecutor = mainExecutor;
+    this.memoryBudget = memoryBudget;
+    this.maxFramesInFlight = maxFramesInFlight;
+  }
+
+  void setSink(@Nullable EventChannel.EventSink sink) {
+    this.sink = sink;
+  }
+
+  /** Returns false if the frame was dropped. The caller keeps ownership of {@code image}. */
+  boolean offer(Image image) {
+    long frameBytes = 0;
+    for (Image.Plane plane : image.getPlanes()) {
+      frameBytes += plane.getBuffer().remaining();
+    }
+    if (!acquireSlot(frameBytes)) {
+      return false;
+    }
+    send(ImageStreamFrames.toMap(image), frameBytes);
+    return true;
+  }
+
+  /** Like {@link #offer(Image)}, for frames that don't come from an {@link Image}. */
+  boolean offer(
+      int width,
+      int height,
+      int format,
+      ByteBuffer[] planeBuffers,
+      int[] rowStrides,
+      int[] pixelStrides) {
+    long frameBytes = 0;
+    for (ByteBuffer buffer : planeBuffers) {
+      frameBytes += buffer.remaining();
+    }
+    if (!acquireSlot(frameBytes)) {
+      return false;
+    }
+    send(
+        ImageStreamFrames.toMap(width, height, format, planeBuffers, rowStrides, pixelStrides),
+        frameBytes);
+    return true;
+  }
+
+  long getDeliveredFrames() {
+    return deliveredFrames.get();
+  }
+
+  /** Returns how many frames were dropped because too many were waiting or memory ran short. */
+  long getDroppedFrames() {
+    return droppedFrames.get();
+  }
+
+  private boolean acquireSlot(long frameBytes) {
+    if (framesInFlight.incrementAndGet() > maxFramesInFlight
+        || !memoryBudget.tryReserve(MemoryBudget.Category.STREAM_FRAMES, frameBytes)) {
+      framesInFlight.decrementAndGet();
+      droppedFrames.incrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  private void send(Map<String, Object> frame, long frameBytes) {
+    mainExecutor.execute(
+        () -> {
+          EventChannel.EventSink currentSink = sink;
+          if (currentSink != null) {
+            currentSink.success(frame);
+            deliveredFrames.incrementAndGet();
+          }
+          memoryBudget.release(MemoryBudget.Category.STREAM_FRAMES, frameBytes);
+          framesInFlight.decrementAndGet();
+        });
+  }
+}
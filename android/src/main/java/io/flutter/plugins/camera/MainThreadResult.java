@@ -0,0 +1,47 @@
+package io.flutter.plugins.camera;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.Nullable;
+import io.flutter.plugin.common.MethodChannel.Result;
+
+/** Forwards a {@link Result} to the main thread, so cameras can complete it on their own thread. */
+final class MainThreadResult implements Result {
+  private final Result result;
+  private final Handler handler = new Handler(Looper.getMainLooper());
+
+  MainThreadResult(Result result) {
+    this.result = result;
+  }
+
+  @Override
+  public void success(@Nullable Object reply) {
+    if (isMainThread()) {
+      result.success(reply);
+    } else {
+      handler.post(() -> result.success(reply));
+    }
+  }
+
+  @Override
+  public void error(String errorCode, @Nullable String errorMessage, @Nullable Object details) {
+    if (isMainThread()) {
+      result.error(errorCode, errorMessage, details);
+    } else {
+      handler.post(() -> result.error(errorCode, errorMessage, details));
+    }
+  }
+
+  @Override
+  public void notImplemented() {
+    if (isMainThread()) {
+      result.notImplemented();
+    } else {
+      handler.post(result::notImplemented);
+    }
+  }
+
+  private static boolean isMainThread() {
+    return Looper.myLooper() == Looper.getMainLooper();
+  }
+}
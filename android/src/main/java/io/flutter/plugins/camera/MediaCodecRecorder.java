@@ -0,0 +1,321 @@
+package io.flutter.plugins.camera;
+
+import android.annotation.SuppressLint;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.CamcorderProfile;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaRecorder;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.view.Surface;
+import androidx.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Records video with a {@link MediaCodec} fed through an input {@link Surface}, as an alternative
+ * to {@link MediaRecorder} that allows choosing the codec, bit rate, bit rate mode and key frame
+ * interval. Encoded samples are handed to a {@link SampleSink}.
+ */
+final class MediaCodecRecorder {
+  private static final long DEQUEUE_TIMEOUT_US = 10000;
+
+  private final MediaCodec videoEncoder;
+  private final Surface inputSurface;
+  @Nullable private final MediaCodec audioEncoder;
+  @Nullable private final AudioRecord audioRecord;
+  private final SampleSink sink;
+
+  private Thread videoThread;
+  private Thread audioThread;
+  private volatile boolean stopRequested;
+  // The sink belongs to the recorder once it is constructed. Until the encoders are started,
+  // nothing else releases it.
+  private boolean started;
+  private boolean sinkReleased;
+
+  // Video frames carry sensor timestamps, so audio is stamped with the clock the sensor uses.
+  private final boolean realtimeClock;
+  private long audioBytesPerSecond;
+  // Both tracks are rebased against the first video frame, so the output starts at zero and audio
+  // stays in sync with it. Pauses are cut out per track so they don't leave gaps.
+  private long originPresentationTimeUs = -1;
+  private final long[] lastPresentationTimeUs = {0, 0};
+  private final long[] pausedDurationUs = {0, 0};
+  private final long[] nominalSampleDurationUs = new long[2];
+  private final boolean[] resuming = new boolean[2];
+  private boolean paused;
+  private boolean awaitingKeyFrame;
+
+  /**
+   * @param realtimeClock whether the camera's sensor timestamps use {@link
+   *     SystemClock#elapsedRealtimeNanos} rather than {@link System#nanoTime}.
+   */
+  @SuppressLint("MissingPermission")
+  MediaCodecRecorder(
+      CamcorderProfile profile,
+      VideoRecordingOptions options,
+      boolean recordAudio,
+      boolean realtimeClock,
+      SampleSink sink)
+      throws IOException {
+    this.sink = sink;
+    this.realtimeClock = realtimeClock;
+
+    String videoMimeType = options.getVideoMimeType();
+    MediaFormat videoFormat =
+        MediaFormat.createVideoFormat(
+            videoMimeType, profile.videoFrameWidth, profile.videoFrameHeight);
+    videoFormat.setInteger(
+        MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+    videoFormat.setInteger(MediaFormat.KEY_BIT_RATE, options.getVideoBitRate(profile));
+    videoFormat.setInteger(MediaFormat.KEY_FRAME_RATE, profile.videoFrameRate);
+    videoFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, options.getIFrameInterval());
+    Integer bitRateMode = options.getBitRateMode();
+    if (bitRateMode != null) {
+      videoFormat.setInteger(MediaFormat.KEY_BITRATE_MODE, bitRateMode);
+    }
+    nominalSampleDurationUs[SampleSink.TRACK_VIDEO] = 1000000L / profile.videoFrameRate;
+
+    MediaCodec audioCodec = null;
+    AudioRecord audioSource = null;
+    videoEncoder = MediaCodec.createEncoderByType(videoMimeType);
+    try {
+      videoEncoder.configure(videoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+      inputSurface = videoEncoder.createInputSurface();
+
+      if (recordAudio) {
+        int channelConfig =
+            profile.audioChannels == 1
+                ? AudioFormat.CHANNEL_IN_MONO
+                : AudioFormat.CHANNEL_IN_STEREO;
+        MediaFormat audioFormat =
+            MediaFormat.createAudioFormat(
+                MediaFormat.MIMETYPE_AUDIO_AAC, profile.audioSampleRate, profile.audioChannels);
+        audioFormat.setInteger(
+            MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        audioFormat.setInteger(MediaFormat.KEY_BIT_RATE, profile.audioBitRate);
+        audioCodec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+        audioCodec.configure(audioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+
+        int minBufferSize =
+            AudioRecord.getMinBufferSize(
+                profile.audioSampleRate, channelConfig, AudioFormat.ENCODING_PCM_16BIT);
+        audioSource =
+            new AudioRecord(
+                MediaRecorder.AudioSource.MIC,
+                profile.audioSampleRate,
+                channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT,
+                minBufferSize * 2);
+        // An AAC frame holds 1024 samples per channel.
+        nominalSampleDurationUs[SampleSink.TRACK_AUDIO] = 1024 * 1000000L / profile.audioSampleRate;
+        audioBytesPerSecond = 2L * profile.audioChannels * profile.audioSampleRate;
+      }
+    } catch (IOException | RuntimeException e) {
+      videoEncoder.release();
+      if (audioCodec != null) audioCodec.release();
+      if (audioSource != null) audioSource.release();
+      throw e;
+    }
+    audioEncoder = audioCodec;
+    audioRecord = audioSource;
+  }
+
+  Surface getSurface() {
+    return inputSurface;
+  }
+
+  void start() {
+    started = true;
+    videoEncoder.start();
+    videoThread = new Thread(this::drainVideo, "CameraVideoEncoder");
+    videoThread.start();
+
+    if (audioEncoder != null) {
+      audioEncoder.start();
+      audioThread = new Thread(this::recordAudio, "CameraAudioEncoder");
+      audioThread.start();
+    }
+  }
+
+  synchronized void pause() {
+    paused = true;
+  }
+
+  synchronized void resume() {
+    if (!paused) {
+      return;
+    }
+    paused = false;
+    resuming[SampleSink.TRACK_VIDEO] = true;
+    resuming[SampleSink.TRACK_AUDIO] = true;
+    // Frames encoded while paused were dropped, so the next frame written must be a key frame.
+    awaitingKeyFrame = true;
+    requestKeyFrame();
+  }
+
+  /** Asks the video encoder to produce a key frame as soon as possible. */
+  void requestKeyFrame() {
+    Bundle parameters = new Bundle();
+    parameters.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+    videoEncoder.setParameters(parameters);
+  }
+
+  /** Drains both encoders to the end of their streams and finalizes the sink. */
+  void stop() {
+    if (!started) {
+      // Nothing was encoded, e.g. because the session failed before start().
+      releaseSink();
+      return;
+    }
+    stopRequested = true;
+    videoEncoder.signalEndOfInputStream();
+    try {
+      videoThread.join();
+      if (audioThread != null) {
+        audioThread.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    releaseSink();
+  }
+
+  /** Releases the encoders, and the sink too if recording never started. */
+  void release() {
+    if (!started) {
+      releaseSink();
+    }
+    videoEncoder.release();
+    inputSurface.release();
+    if (audioEncoder != null) {
+      audioEncoder.release();
+    }
+    if (audioRecord != null) {
+      audioRecord.release();
+    }
+  }
+
+  private void releaseSink() {
+    if (!sinkReleased) {
+      sinkReleased = true;
+      sink.release();
+    }
+  }
+
+  private void drainVideo() {
+    MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    while (!drainEncoder(videoEncoder, SampleSink.TRACK_VIDEO, info, DEQUEUE_TIMEOUT_US)) {
+      // Keep draining until the end of stream signalled by stop().
+    }
+  }
+
+  private void recordAudio() {
+    MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    boolean inputDone = false;
+    audioRecord.startRecording();
+    try {
+      while (true) {
+        if (!inputDone) {
+          int inputIndex = audioEncoder.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+          if (inputIndex >= 0) {
+            ByteBuffer inputBuffer = audioEncoder.getInputBuffer(inputIndex);
+            inputBuffer.clear();
+            int read = Math.max(audioRecord.read(inputBuffer, inputBuffer.capacity()), 0);
+            // The buffer was captured over the time it took to fill, so it starts that long ago.
+            long presentationTimeUs =
+                (realtimeClock ? SystemClock.elapsedRealtimeNanos() : System.nanoTime()) / 1000
+                    - read * 1000000L / audioBytesPerSecond;
+            inputDone = stopRequested;
+            audioEncoder.queueInputBuffer(
+                inputIndex,
+                0,
+                read,
+                presentationTimeUs,
+                inputDone ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+          }
+        }
+        if (drainEncoder(audioEncoder, SampleSink.TRACK_AUDIO, info, 0)) {
+          return;
+        }
+      }
+    } finally {
+      audioRecord.stop();
+    }
+  }
+
+  /**
+   * Writes all currently available output of {@code encoder} to the sink.
+   *
+   * @return whether the end of the stream was reached.
+   */
+  private boolean drainEncoder(
+      MediaCodec encoder, int track, MediaCodec.BufferInfo info, long timeoutUs) {
+    while (true) {
+      int index = encoder.dequeueOutputBuffer(info, timeoutUs);
+      if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+        return false;
+      } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+        sink.onOutputFormat(track, encoder.getOutputFormat());
+      } else if (index >= 0) {
+        ByteBuffer buffer = encoder.getOutputBuffer(index);
+        writeSample(track, buffer, info);
+        encoder.releaseOutputBuffer(index, false);
+        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+          return true;
+        }
+      }
+    }
+  }
+
+  private void writeSample(int track, ByteBuffer buffer, MediaCodec.BufferInfo info) {
+    // The codec config is carried by the output format the sink already received.
+    if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 || info.size == 0) {
+      return;
+    }
+    if (!rebaseTimestamp(track, info)) {
+      return;
+    }
+    buffer.position(info.offset);
+    buffer.limit(info.offset + info.size);
+    sink.onSample(track, buffer, info);
+  }
+
+  /** Rewrites the presentation time of {@code info}, returning false if it should be dropped. */
+  private synchronized boolean rebaseTimestamp(int track, MediaCodec.BufferInfo info) {
+    if (paused) {
+      return false;
+    }
+    if (track == SampleSink.TRACK_VIDEO && awaitingKeyFrame) {
+      if ((info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) == 0) {
+        return false;
+      }
+      awaitingKeyFrame = false;
+    }
+
+    if (originPresentationTimeUs < 0) {
+      if (track != SampleSink.TRACK_VIDEO) {
+        // Audio from before the first video frame has nothing to play along with.
+        return false;
+      }
+      originPresentationTimeUs = info.presentationTimeUs;
+    }
+    long presentationTimeUs = info.presentationTimeUs - originPresentationTimeUs;
+    if (presentationTimeUs < 0) {
+      return false;
+    }
+    if (resuming[track]) {
+      resuming[track] = false;
+      pausedDurationUs[track] =
+          presentationTimeUs - lastPresentationTimeUs[track] - nominalSampleDurationUs[track];
+    }
+    presentationTimeUs -= pausedDurationUs[track];
+    info.presentationTimeUs = presentationTimeUs;
+    lastPresentationTimeUs[track] = presentationTimeUs;
+    return true;
+  }
+}
@@ -0,0 +1,95 @@
+package io.flutter.plugins.camera;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accounts for the buffers the plugin allocates or pools, across all cameras, against an optional
+ * cap.
+ *
+ * <p>Allocations go through {@link #tryReserve}: image readers are made smaller, or the call that
+ * needs them fails, and copied stream frames are dropped when they would exceed the cap. Buffers
+ * that were counted before can be {@link #reserve reserved} again regardless. Owners release
+ * exactly what they reserved.
+ */
+final class MemoryBudget {
+  enum Category {
+    PICTURE_READER("pictureReader"),
+    STREAM_READER("streamReader"),
+    STREAM_FRAMES("streamFrames"),
+    PRE_EVENT_BUFFER("preEventBuffer"),
+    SNAPSHOT_FRAMES("snapshotFrames"),
+    READBACK_BUFFERS("readbackBuffers");
+
+    final String value;
+
+    Category(String value) {
+      this.value = value;
+    }
+  }
+
+  private final long[] bytesByCategory = new long[Category.values().length];
+  private long capBytes = Long.MAX_VALUE;
+  private long usedBytes;
+  private long peakBytes;
+  private long rejectedBytes;
+
+  /** Estimates the buffers of an image reader, assuming 12 bits per pixel as YUV and JPEG need. */
+  static long imageReaderBytes(int width, int height, int maxImages) {
+    return (long) width * height * 3 / 2 * maxImages;
+  }
+
+  /** Sets the cap, or removes it if {@code capBytes} isn't positive. */
+  synchronized void setCapBytes(long capBytes) {
+    this.capBytes = capBytes > 0 ? capBytes : Long.MAX_VALUE;
+  }
+
+  /** Returns whether {@code bytes} more can be reserved without exceeding the cap. */
+  synchronized boolean fits(long bytes) {
+    return bytes <= capBytes - usedBytes;
+  }
+
+  /** Counts {@code bytes}, even if they exceed the cap. */
+  synchronized void reserve(Category category, long bytes) {
+    bytesByCategory[category.ordinal()] += bytes;
+    usedBytes += bytes;
+    peakBytes = Math.max(peakBytes, usedBytes);
+  }
+
+  /** Counts {@code bytes} and returns true, or returns false if they would exceed the cap. */
+  synchronized boolean tryReserve(Category category, long bytes) {
+    if (!fits(bytes)) {
+      rejectedBytes += bytes;
+      return false;
+    }
+    reserve(category, bytes);
+    return true;
+  }
+
+  synchronized void release(Category category, long bytes) {
+    bytesByCategory[category.ordinal()] -= bytes;
+    usedBytes -= bytes;
+  }
+
+  synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  synchronized long getPeakBytes() {
+    return peakBytes;
+  }
+
+  synchronized Map<String, Object> toMap() {
+    Map<String, Object> categories = new HashMap<>();
+    for (Category category : Category.values()) {
+      categories.put(category.value, bytesByCategory[category.ordinal()]);
+    }
+    Map<String, Object> usage = new HashMap<>();
+    usage.put("usedBytes", usedBytes);
+    usage.put("peakBytes", peakBytes);
+    usage.put("capBytes", capBytes != Long.MAX_VALUE ? capBytes : null);
+    usage.put("rejectedBytes", rejectedBytes);
+    usage.put("categories", categories);
+    return usage;
+  }
+}
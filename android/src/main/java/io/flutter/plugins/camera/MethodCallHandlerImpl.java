@@ -1,7 +1,11 @@
 package io.flutter.plugins.camera;
 
 import android.app.Activity;
+import android.app.Application;
 import android.hardware.camera2.CameraAccessException;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import io.flutter.plugin.common.BinaryMessenger;
@@ -11,6 +15,10 @@ import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.Result;
 import io.flutter.plugins.camera.CameraPermissions.PermissionsRegistry;
 import io.flutter.view.TextureRegistry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
   private final Activity activity;
@@ -19,8 +27,14 @@ final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
   private final PermissionsRegistry permissionsRegistry;
   private final TextureRegistry textureRegistry;
   private final MethodChannel methodChannel;
-  private final EventChannel imageStreamChannel;
-  private @Nullable Camera camera;
+  // Open cameras by texture id.
+  private final Map<Long, Camera> cameras = new HashMap<>();
+  private final Map<Long, UsbCamera> usbCameras = new HashMap<>();
+  // Shared by all cameras.
+  private final MemoryBudget memoryBudget = new MemoryBudget();
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final LifecycleCallbacks lifecycleCallbacks = new LifecycleCallbacks();
+  private boolean autoPausePreview;
 
   MethodCallHandlerImpl(
       Activity activity,
@@ -35,12 +49,14 @@ final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
     this.textureRegistry = textureRegistry;
 
     methodChannel = new MethodChannel(messenger, "plugins.flutter.io/camera");
-    imageStreamChannel = new EventChannel(messenger, "plugins.flutter.io/camera/imageStream");
     methodChannel.setMethodCallHandler(this);
+    activity.getApplication().registerActivityLifecycleCallbacks(lifecycleCallbacks);
   }
 
   @Override
-  public void onMethodCall(@NonNull MethodCall call, @NonNull final Result result) {
+  public void onMethodCall(@NonNull MethodCall call, @NonNull final Result rawResult) {
+    // Cameras complete their calls on their own threads.
+    final Result result = new MainThreadResult(rawResult);
     switch (call.method) {
       case "availableCameras":
         try {
@@ -49,34 +65,178 @@ final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
           handleException(e, result);
         }
         break;
+      case "batch":
+        {
+          List<Map<String, Object>> commands = call.argument("commands");
+          new Batch(commands, result).run(0);
+          break;
+        }
+      case "concurrentCameras":
+        try {
+          result.success(CameraUtils.getConcurrentCameras(activity));
+        } catch (Exception e) {
+          handleException(e, result);
+        }
+        break;
+      case "setAutoPausePreview":
+        // Pauses all previews while the activity is in the background.
+        if (!checkArguments(call, result)) {
+          break;
+        }
+        autoPausePreview = call.argument("enabled");
+        result.success(null);
+        break;
+      case "getMemoryUsage":
+        result.success(memoryBudget.toMap());
+        break;
+      case "setMemoryBudget":
+        {
+          // Null or zero removes the cap.
+          Number capBytes = call.argument("capBytes");
+          memoryBudget.setCapBytes(capBytes != null ? capBytes.longValue() : 0);
+          result.success(null);
+          break;
+        }
       case "initialize":
         {
-          if (camera != null) {
-            camera.close();
+          String cameraName = call.argument("cameraName");
+          // A device can only be opened once, initializing it again replaces the old instance.
+          disposeCamerasNamed(cameraName);
+          try {
+            if (!UsbCamera.isUsbCameraName(cameraName)
+                && !CameraUtils.canOpenConcurrently(activity, getOpenCameraNames(cameraName))) {
+              result.error(
+                  "cameraConcurrency",
+                  "Camera " + cameraName + " can't be used together with the open cameras.",
+                  null);
+              break;
+            }
+          } catch (Exception e) {
+            handleException(e, result);
+            break;
+          }
+          if (UsbCamera.isUsbCameraName(cameraName)) {
+            cameraPermissions.requestPermissions(
+                activity,
+                permissionsRegistry,
+                call.argument("enableAudio"),
+                (String errCode, String errDesc) -> {
+                  if (errCode == null) {
+                    instantiateUsbCamera(call, result);
+                  } else {
+                    result.error(errCode, errDesc, null);
+                  }
+                });
+            break;
           }
+          // Everything but opening the device runs while the user is asked for permissions.
+          final Camera camera = instantiateCamera(call);
           cameraPermissions.requestPermissions(
               activity,
               permissionsRegistry,
               call.argument("enableAudio"),
-              (String errCode, String errDesc) -> {
-                if (errCode == null) {
-                  try {
-                    instantiateCamera(call, result);
-                  } catch (Exception e) {
-                    handleException(e, result);
-                  }
-                } else {
-                  result.error(errCode, errDesc, null);
-                }
-              });
-
+              (String errCode, String errDesc) -> openCamera(camera, errCode, errDesc, result));
           break;
         }
+      default:
+        {
+          if (!checkArguments(call, result)) {
+            break;
+          }
+          final Long textureId = getTextureId(call);
+          if (textureId == null) {
+            result.error("invalidArgument", "A textureId is required.", null);
+            break;
+          }
+          UsbCamera usbCamera = usbCameras.get(textureId);
+          if (usbCamera != null) {
+            if (call.method.equals("dispose")) {
+              usbCameras.remove(textureId);
+              getImageStreamChannel(textureId).setStreamHandler(null);
+            }
+            onUsbCameraMethodCall(usbCamera, textureId, call, result);
+            break;
+          }
+          final Camera camera = cameras.get(textureId);
+          if (camera == null) {
+            if (call.method.equals("dispose")) {
+              // Already disposed, e.g. because the camera was initialized again.
+              result.success(null);
+            } else {
+              result.error("cameraNotFound", "No camera with texture id " + textureId + ".", null);
+            }
+            break;
+          }
+          if (call.method.equals("dispose")) {
+            cameras.remove(textureId);
+            getImageStreamChannel(textureId).setStreamHandler(null);
+          }
+          camera.getHandler().post(() -> onCameraMethodCall(camera, textureId, call, result));
+          break;
+        }
+    }
+  }
+
+  /**
+   * Rejects arguments that would otherwise fail with an exception when they are unboxed, which on
+   * the camera thread can't reach the channel.
+   */
+  private static boolean checkArguments(MethodCall call, Result result) {
+    switch (call.method) {
+      case "setAutoPausePreview":
+      case "setRenderMetricsEnabled":
+        if (!(call.argument("enabled") instanceof Boolean)) {
+          result.error("invalidArgument", "A bool \"enabled\" is required.", null);
+          return false;
+        }
+        return true;
+      case "snapshotFromStream":
+        if (!(call.argument("quality") instanceof Integer)) {
+          result.error("invalidArgument", "A quality between 0 and 100 is required.", null);
+          return false;
+        }
+        return true;
+      case "startVideoRecording":
+        String engine = call.argument("recordingEngine");
+        if (engine != null && !VideoRecordingOptions.isEngine(engine)) {
+          result.error("invalidArgument", "Unknown recording engine: " + engine, null);
+          return false;
+        }
+        return true;
+      default:
+        return true;
+    }
+  }
+
+  // Runs on the camera's thread. An exception escaping from here would take the app down, so every
+  // failure is reported to the caller instead.
+  private void onCameraMethodCall(
+      Camera camera, long textureId, @NonNull MethodCall call, final Result result) {
+    try {
+      dispatchCameraMethodCall(camera, textureId, call, result);
+    } catch (Exception e) {
+      if (e instanceof CameraAccessException) {
+        result.error("CameraAccess", e.getMessage(), null);
+      } else {
+        result.error("cameraError", call.method + " failed: " + e.getMessage(), null);
+      }
+    }
+  }
+
+  private void dispatchCameraMethodCall(
+      Camera camera, long textureId, @NonNull MethodCall call, final Result result)
+      throws Exception {
+    switch (call.method) {
       case "takePicture":
         {
           camera.takePicture(call.argument("path"), result);
           break;
         }
+      case "snapshotFromStream":
+        {
+          camera.snapshotFromStream(call.argument("quality"), call.argument("path"), result);
+          break;
+        }
       case "prepareForVideoRecording":
         {
           // This optimization is not required for Android.
@@ -85,7 +245,18 @@ final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
         }
       case "startVideoRecording":
         {
-          camera.startVideoRecording(call.argument("filePath"), result);
+          camera.startVideoRecording(
+              call.argument("filePath"), VideoRecordingOptions.fromMethodCall(call), result);
+          break;
+        }
+      case "startPreEventRecording":
+        {
+          camera.startPreEventRecording(VideoRecordingOptions.fromPreEventMethodCall(call), result);
+          break;
+        }
+      case "commitPreEvent":
+        {
+          camera.commitPreEvent(call.argument("filePath"), result);
           break;
         }
       case "stopVideoRecording":
@@ -106,7 +277,7 @@ final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
       case "startImageStream":
         {
           try {
-            camera.startPreviewWithImageStream(imageStreamChannel);
+            camera.startPreviewWithImageStream(getImageStreamChannel(textureId));
             result.success(null);
           } catch (Exception e) {
             handleException(e, result);
@@ -116,18 +287,49 @@ final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
       case "stopImageStream":
         {
           try {
-            camera.startPreview();
+            camera.stopImageStream();
             result.success(null);
           } catch (Exception e) {
             handleException(e, result);
           }
           break;
         }
-      case "dispose":
+      case "pausePreview":
+        {
+          try {
+            camera.pausePreview();
+            result.success(null);
+          } catch (IllegalStateException e) {
+            result.error("pausePreviewFailed", e.getMessage(), null);
+          } catch (Exception e) {
+            handleException(e, result);
+          }
+          break;
+        }
+      case "resumePreview":
         {
-          if (camera != null) {
-            camera.dispose();
+          try {
+            camera.resumePreview();
+            result.success(null);
+          } catch (Exception e) {
+            handleException(e, result);
           }
+          break;
+        }
+      case "setFpsRange":
+        {
+          camera.setFpsRange(call.argument("minFps"), call.argument("maxFps"), result);
+          break;
+        }
+      case "setEventBatching":
+        {
+          setEventBatching(camera.getDartMessenger(), call);
+          result.success(null);
+          break;
+        }
+      case "dispose":
+        {
+          camera.dispose();
           result.success(null);
           break;
         }
@@ -137,27 +339,420 @@ final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
     }
   }
 
+  private void onUsbCameraMethodCall(
+      UsbCamera usbCamera, long textureId, @NonNull MethodCall call, @NonNull final Result result) {
+    switch (call.method) {
+      case "takePicture":
+        usbCamera.takePicture(call.argument("path"), result);
+        break;
+      case "snapshotFromStream":
+        usbCamera.snapshotFromStream(call.argument("quality"), call.argument("path"), result);
+        break;
+      case "prepareForVideoRecording":
+        result.success(null);
+        break;
+      case "startImageStream":
+        usbCamera.startPreviewWithImageStream(getImageStreamChannel(textureId));
+        result.success(null);
+        break;
+      case "stopImageStream":
+        usbCamera.stopImageStream();
+        result.success(null);
+        break;
+      case "pausePreview":
+        usbCamera.pausePreview();
+        result.success(null);
+        break;
+      case "resumePreview":
+        usbCamera.resumePreview();
+        result.success(null);
+        break;
+      case "setRenderMetricsEnabled":
+        usbCamera.setRenderMetricsEnabled(call.argument("enabled"));
+        result.success(null);
+        break;
+      case "getRenderMetrics":
+        result.success(usbCamera.getRenderMetrics());
+        break;
+      case "setEventBatching":
+        setEventBatching(usbCamera.getDartMessenger(), call);
+        result.success(null);
+        break;
+      case "dispose":
+        usbCamera.dispose();
+        result.success(null);
+        break;
+      case "startVideoRecording":
+      case "startPreEventRecording":
+      case "commitPreEvent":
+      case "stopVideoRecording":
+      case "pauseVideoRecording":
+      case "resumeVideoRecording":
+        result.error("videoRecordingFailed", "USB cameras can't record video.", null);
+        break;
+      default:
+        result.notImplemented();
+        break;
+    }
+  }
+
+  /**
+   * Runs commands one after the other, each once the previous one completed, and replies once with
+   * all of their results. Consecutive commands for the same camera run back-to-back on its thread,
+   * the others go through {@link #onMethodCall} on the main thread. Commands without a "textureId"
+   * target the camera initialized earlier in the batch. The first failure stops the batch and is
+   * reported with its index.
+   */
+  private final class Batch {
+    private final List<Map<String, Object>> commands;
+    private final Result result;
+    private final List<Object> results = new ArrayList<>();
+    @Nullable private Long initializedTextureId;
+
+    Batch(List<Map<String, Object>> commands, Result result) {
+      this.commands = commands;
+      this.result = result;
+    }
+
+    /** Runs the commands from {@code index} on, on the main thread. */
+    void run(final int index) {
+      if (index == commands.size()) {
+        result.success(createBatchReply(results, null, null));
+        return;
+      }
+      MethodCall call = getCommand(index);
+      if ("batch".equals(call.method)) {
+        fail(index, "invalidBatch", "Batches can't be nested.", null);
+        return;
+      }
+      // Disposing unregisters the camera, which only happens on the main thread.
+      final Camera camera = call.method.equals("dispose") ? null : cameras.get(getTextureId(call));
+      if (camera == null) {
+        onMethodCall(call, new CommandResult(index, () -> run(index + 1)));
+        return;
+      }
+      camera.getHandler().post(() -> runOnCamera(camera, index));
+    }
+
+    /** Runs the commands from {@code index} on while they target {@code camera}, on its thread. */
+    private void runOnCamera(final Camera camera, final int index) {
+      final MethodCall call = index < commands.size() ? getCommand(index) : null;
+      Long textureId = call != null ? getTextureId(call) : null;
+      if (call == null
+          || call.method.equals("dispose")
+          || textureId == null
+          || textureId != camera.getFlutterTexture().id()) {
+        mainHandler.post(() -> run(index));
+        return;
+      }
+      Result commandResult =
+          new CommandResult(
+              index, () -> camera.getHandler().post(() -> runOnCamera(camera, index + 1)));
+      if (checkArguments(call, commandResult)) {
+        onCameraMethodCall(camera, textureId, call, commandResult);
+      }
+    }
+
+    /** Returns the command at {@code index}, targeting the camera the batch initialized if none. */
+    @SuppressWarnings("unchecked")
+    private MethodCall getCommand(int index) {
+      Map<String, Object> command = commands.get(index);
+      Object arguments = command.get("arguments");
+      if (initializedTextureId != null && (arguments == null || arguments instanceof Map)) {
+        Map<String, Object> argumentsMap =
+            arguments != null ? (Map<String, Object>) arguments : new HashMap<String, Object>();
+        if (!argumentsMap.containsKey("textureId")) {
+          argumentsMap = new HashMap<>(argumentsMap);
+          argumentsMap.put("textureId", initializedTextureId);
+          arguments = argumentsMap;
+        }
+      }
+      return new MethodCall((String) command.get("method"), arguments);
+    }
+
+    private void fail(
+        int index, String errorCode, @Nullable String errorMessage, @Nullable Object details) {
+      Map<String, Object> error = new HashMap<>();
+      error.put("code", errorCode);
+      error.put("message", errorMessage);
+      error.put("details", details);
+      result.success(createBatchReply(results, index, error));
+    }
+
+    /** Collects the result of the command at {@code index} and continues with {@code next}. */
+    private final class CommandResult implements Result {
+      private final int index;
+      private final Runnable next;
+
+      CommandResult(int index, Runnable next) {
+        this.index = index;
+        this.next = next;
+      }
+
+      @Override
+      public void success(@Nullable Object reply) {
+        if ("initialize".equals(commands.get(index).get("method")) && reply instanceof Map) {
+          Number textureId = (Number) ((Map<?, ?>) reply).get("textureId");
+          initializedTextureId = textureId.longValue();
+        }
+        results.add(reply);
+        next.run();
+      }
+
+      @Override
+      public void error(
+          String errorCode, @Nullable String errorMessage, @Nullable Object errorDetails) {
+        fail(index, errorCode, errorMessage, errorDetails);
+      }
+
+      @Override
+      public void notImplemented() {
+        fail(
+            index,
+            "notImplemented",
+            "Unknown method " + commands.get(index).get("method") + ".",
+            null);
+      }
+    }
+  }
+
+  /**
+   * Applies the "intervalMs" batch interval and the "rateLimits" minimum intervals, keyed by event
+   * type, of {@code call} to the camera's events.
+   */
+  private static void setEventBatching(DartMessenger dartMessenger, MethodCall call) {
+    Number intervalMs = call.argument("intervalMs");
+    dartMessenger.setBatchInterval(intervalMs != null ? intervalMs.longValue() : 0);
+    Map<String, Number> rateLimits = call.argument("rateLimits");
+    if (rateLimits == null) {
+      return;
+    }
+    for (DartMessenger.EventType eventType : DartMessenger.EventType.values()) {
+      Number minIntervalMs = rateLimits.get(eventType.value);
+      dartMessenger.setRateLimit(eventType, minIntervalMs != null ? minIntervalMs.longValue() : 0);
+    }
+  }
+
+  private static Map<String, Object> createBatchReply(
+      List<Object> results, @Nullable Integer failedIndex, @Nullable Map<String, Object> error) {
+    Map<String, Object> reply = new HashMap<>();
+    reply.put("results", results);
+    reply.put("failedIndex", failedIndex);
+    reply.put("error", error);
+    return reply;
+  }
+
   void stopListening() {
     methodChannel.setMethodCallHandler(null);
+    activity.getApplication().unregisterActivityLifecycleCallbacks(lifecycleCallbacks);
   }
 
-  private void instantiateCamera(MethodCall call, Result result) throws CameraAccessException {
+  private final class LifecycleCallbacks implements Application.ActivityLifecycleCallbacks {
+    @Override
+    public void onActivityPaused(Activity pausedActivity) {
+      if (pausedActivity != activity || !autoPausePreview) {
+        return;
+      }
+      for (UsbCamera usbCamera : usbCameras.values()) {
+        usbCamera.autoPausePreview();
+      }
+      for (final Camera camera : cameras.values()) {
+        camera.getHandler().post(() -> runIgnoringAccessErrors(camera::autoPausePreview));
+      }
+    }
+
+    @Override
+    public void onActivityResumed(Activity resumedActivity) {
+      if (resumedActivity != activity) {
+        return;
+      }
+      // Also resumes previews paused before auto pausing was turned off.
+      for (UsbCamera usbCamera : usbCameras.values()) {
+        usbCamera.autoResumePreview();
+      }
+      for (final Camera camera : cameras.values()) {
+        camera.getHandler().post(() -> runIgnoringAccessErrors(camera::autoResumePreview));
+      }
+    }
+
+    @Override
+    public void onActivityCreated(Activity createdActivity, Bundle savedInstanceState) {}
+
+    @Override
+    public void onActivityStarted(Activity startedActivity) {}
+
+    @Override
+    public void onActivityStopped(Activity stoppedActivity) {}
+
+    @Override
+    public void onActivitySaveInstanceState(Activity savedActivity, Bundle outState) {}
+
+    @Override
+    public void onActivityDestroyed(Activity destroyedActivity) {}
+  }
+
+  private interface CameraAction {
+    void run() throws CameraAccessException;
+  }
+
+  private static void runIgnoringAccessErrors(CameraAction action) {
+    try {
+      action.run();
+    } catch (CameraAccessException | IllegalStateException e) {
+      // The device or session went away in the background, its own callbacks report that.
+    }
+  }
+
+  @Nullable
+  private Long getTextureId(MethodCall call) {
+    // The codec hands us an Integer or a Long depending on the magnitude.
+    Number textureId = call.argument("textureId");
+    return textureId != null ? Long.valueOf(textureId.longValue()) : null;
+  }
+
+  /** Each camera streams its images on a channel of its own, named after its texture. */
+  private EventChannel getImageStreamChannel(long textureId) {
+    return new EventChannel(messenger, "plugins.flutter.io/camera/imageStream/" + textureId);
+  }
+
+  private List<String> getOpenCameraNames(String newCameraName) {
+    List<String> cameraNames = new ArrayList<>();
+    for (Camera camera : cameras.values()) {
+      cameraNames.add(camera.getCameraName());
+    }
+    cameraNames.add(newCameraName);
+    return cameraNames;
+  }
+
+  private void disposeCamerasNamed(String cameraName) {
+    for (Map.Entry<Long, Camera> entry : new ArrayList<>(cameras.entrySet())) {
+      Camera camera = entry.getValue();
+      if (camera.getCameraName().equals(cameraName)) {
+        cameras.remove(entry.getKey());
+        getImageStreamChannel(entry.getKey()).setStreamHandler(null);
+        camera.getHandler().post(camera::dispose);
+      }
+    }
+    for (Map.Entry<Long, UsbCamera> entry : new ArrayList<>(usbCameras.entrySet())) {
+      if (entry.getValue().getCameraName().equals(cameraName)) {
+        usbCameras.remove(entry.getKey());
+        getImageStreamChannel(entry.getKey()).setStreamHandler(null);
+        entry.getValue().dispose();
+      }
+    }
+  }
+
+  private void instantiateUsbCamera(MethodCall call, Result result) {
+    String cameraName = call.argument("cameraName");
+    String resolutionPreset = call.argument("resolutionPreset");
+    TextureRegistry.SurfaceTextureEntry flutterSurfaceTexture =
+        textureRegistry.createSurfaceTexture();
+    DartMessenger dartMessenger = new DartMessenger(messenger, flutterSurfaceTexture.id());
+    UsbCamera usbCamera =
+        new UsbCamera(
+            activity,
+            flutterSurfaceTexture,
+            dartMessenger,
+            memoryBudget,
+            cameraName,
+            resolutionPreset);
+    usbCameras.put(flutterSurfaceTexture.id(), usbCamera);
+    usbCamera.open(disposeOnError(flutterSurfaceTexture.id(), usbCamera::dispose, result));
+  }
+
+  /** Creates and registers a camera, and starts preparing it on its thread. */
+  private Camera instantiateCamera(MethodCall call) {
     String cameraName = call.argument("cameraName");
     String resolutionPreset = call.argument("resolutionPreset");
     boolean enableAudio = call.argument("enableAudio");
     TextureRegistry.SurfaceTextureEntry flutterSurfaceTexture =
         textureRegistry.createSurfaceTexture();
     DartMessenger dartMessenger = new DartMessenger(messenger, flutterSurfaceTexture.id());
-    camera =
+    final Camera camera =
         new Camera(
             activity,
             flutterSurfaceTexture,
             dartMessenger,
+            memoryBudget,
             cameraName,
             resolutionPreset,
             enableAudio);
+    cameras.put(flutterSurfaceTexture.id(), camera);
 
-    camera.open(result);
+    camera
+        .getHandler()
+        .post(
+            () -> {
+              try {
+                camera.prepare();
+              } catch (CameraAccessException | RuntimeException e) {
+                // Opening prepares again and reports the error. Rethrowing it here would take the
+                // app down.
+              }
+            });
+    return camera;
+  }
+
+  /** Opens a prepared camera once permissions are granted, or disposes of it otherwise. */
+  private void openCamera(Camera camera, String errCode, String errDesc, Result result) {
+    Long textureId = null;
+    for (Map.Entry<Long, Camera> entry : cameras.entrySet()) {
+      if (entry.getValue() == camera) {
+        textureId = entry.getKey();
+      }
+    }
+    if (textureId == null) {
+      result.error("CameraAccess", "The camera was disposed while it was initialized.", null);
+      return;
+    }
+    final Result openResult =
+        disposeOnError(textureId, () -> camera.getHandler().post(camera::dispose), result);
+    if (errCode != null) {
+      openResult.error(errCode, errDesc, null);
+      return;
+    }
+    camera
+        .getHandler()
+        .post(
+            () -> {
+              try {
+                camera.open(openResult);
+              } catch (CameraAccessException e) {
+                openResult.error("CameraAccess", e.getMessage(), null);
+              } catch (RuntimeException e) {
+                // E.g. characteristics or profiles the device doesn't report.
+                openResult.error("cameraError", "initialize failed: " + e.getMessage(), null);
+              }
+            });
+  }
+
+  /**
+   * Wraps the result of an initialize call so that failing it also unregisters the camera and runs
+   * {@code dispose}, unless the camera was disposed already.
+   */
+  private Result disposeOnError(final long textureId, final Runnable dispose, final Result result) {
+    return new MainThreadResult(
+        new Result() {
+          @Override
+          public void success(@Nullable Object reply) {
+            result.success(reply);
+          }
+
+          @Override
+          public void error(
+              String errorCode, @Nullable String errorMessage, @Nullable Object errorDetails) {
+            if (cameras.remove(textureId) != null || usbCameras.remove(textureId) != null) {
+              getImageStreamChannel(textureId).setStreamHandler(null);
+              dispose.run();
+            }
+            result.error(errorCode, errorMessage, errorDetails);
+          }
+
+          @Override
+          public void notImplemented() {
+            result.notImplemented();
+          }
+        });
   }
 
   // We move catching CameraAccessException out of onMethodCall because it causes a crash
@@ -0,0 +1,79 @@
+package io.flutter.plugins.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Writes the encoded samples of a {@link MediaCodecRecorder} into a single MPEG-4 file. */
+final class MuxerSampleSink implements SampleSink {
+  private final MediaMuxer muxer;
+  private final int trackCount;
+  private final int[] trackIndices = {-1, -1};
+  private int addedTracks;
+  private boolean started;
+  // Samples that arrive before every track reported its format. The muxer can only be started
+  // once all tracks are added, and the first video sample is the key frame we can't lose.
+  private final List<PendingSample> pendingSamples = new ArrayList<>();
+
+  MuxerSampleSink(String outputFilePath, int orientationHint, int trackCount) throws IOException {
+    this.trackCount = trackCount;
+    muxer = new MediaMuxer(outputFilePath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    muxer.setOrientationHint(orientationHint);
+  }
+
+  @Override
+  public synchronized void onOutputFormat(int track, MediaFormat format) {
+    if (trackIndices[track] >= 0) {
+      return;
+    }
+    trackIndices[track] = muxer.addTrack(format);
+    if (++addedTracks < trackCount) {
+      return;
+    }
+
+    muxer.start();
+    started = true;
+    for (PendingSample sample : pendingSamples) {
+      muxer.writeSampleData(trackIndices[sample.track], sample.data, sample.info);
+    }
+    pendingSamples.clear();
+  }
+
+  @Override
+  public synchronized void onSample(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+    if (started) {
+      muxer.writeSampleData(trackIndices[track], data, info);
+    } else {
+      pendingSamples.add(new PendingSample(track, data, info));
+    }
+  }
+
+  @Override
+  public synchronized void release() {
+    try {
+      if (started) {
+        muxer.stop();
+      }
+    } finally {
+      muxer.release();
+    }
+  }
+
+  private static final class PendingSample {
+    final int track;
+    final ByteBuffer data;
+    final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+    PendingSample(int track, ByteBuffer source, MediaCodec.BufferInfo sourceInfo) {
+      this.track = track;
+      data = ByteBuffer.allocate(source.remaining());
+      data.put(source);
+      data.flip();
+      info.set(0, sourceInfo.size, sourceInfo.presentationTimeUs, sourceInfo.flags);
+    }
+  }
+}
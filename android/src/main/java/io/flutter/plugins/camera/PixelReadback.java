@@ -0,0 +1,308 @@
+package io.flutter.plugins.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Handler;
+import android.os.HandlerThread;
+import androidx.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads rendered frames back from the GPU for still captures without stalling the render loop.
+ *
+ * <p>All methods except the request factories must be called on the render thread with the EGL
+ * context current. On OpenGL ES 3 the pixels are read into one of two pixel buffer objects and only
+ * mapped one frame later, once the GPU has finished the transfer. On OpenGL ES 2 {@code
+ * glReadPixels} has to copy synchronously, but still into preallocated buffers. In both cases the
+ * pixels are turned into a {@link Bitmap} or JPEG on a separate encoder thread.
+ *
+ * <p>The pixel buffers and the bitmaps of each capture count against the {@link MemoryBudget}.
+ * Captures that would exceed it fail instead.
+ */
+final class PixelReadback {
+  private static final int SLOT_COUNT = 2;
+
+  /** A pending still capture, completed on the encoder thread. */
+  abstract static class Request<T> {
+    final int width;
+    final int height;
+    final SettableFuture<T> future = new SettableFuture<>();
+
+    Request(int width, int height) {
+      this.width = width;
+      this.height = height;
+    }
+
+    abstract T encode(Bitmap frame);
+  }
+
+  static Request<Bitmap> bitmapRequest(int width, int height) {
+    return new Request<Bitmap>(width, height) {
+      @Override
+      Bitmap encode(Bitmap frame) {
+        return scale(frame, width, height);
+      }
+    };
+  }
+
+  static Request<byte[]> jpegRequest(int width, int height, final int quality) {
+    return new Request<byte[]>(width, height) {
+      @Override
+      byte[] encode(Bitmap frame) {
+        Bitmap scaled = scale(frame, width, height);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        scaled.compress(Bitmap.CompressFormat.JPEG, quality, stream);
+        if (scaled != frame) {
+          scaled.recycle();
+        }
+        return stream.toByteArray();
+      }
+    };
+  }
+
+  /** A reusable destination for one frame, owned by the encoder thread while it is busy. */
+  private static final class Slot {
+    ByteBuffer pixels;
+    long reservedBytes;
+    volatile boolean busy;
+  }
+
+  private final MemoryBudget memoryBudget;
+  private final Slot[] slots = new Slot[SLOT_COUNT];
+  private final boolean usePixelBuffers;
+  private final int[] pixelBuffers = new int[SLOT_COUNT];
+  private final int[] pixelBufferSizes = new int[SLOT_COUNT];
+  private final HandlerThread encoderThread;
+  private final Handler encoderHandler;
+  private List<Request<?>> pendingRequests = new ArrayList<>();
+  // Set while a pixel buffer transfer is in flight, mapped on the next frame.
+  private List<Request<?>> inFlightRequests;
+  private int inFlightSlot;
+  private int inFlightWidth;
+  private int inFlightHeight;
+
+  PixelReadback(MemoryBudget memoryBudget) {
+    this.memoryBudget = memoryBudget;
+    for (int i = 0; i < SLOT_COUNT; i++) {
+      slots[i] = new Slot();
+    }
+    String version = GLES20.glGetString(GLES20.GL_VERSION);
+    usePixelBuffers = version != null && version.startsWith("OpenGL ES 3");
+    if (usePixelBuffers) {
+      GLES30.glGenBuffers(SLOT_COUNT, pixelBuffers, 0);
+    }
+    encoderThread = new HandlerThread("StillImageEncoder");
+    encoderThread.start();
+    encoderHandler = new Handler(encoderThread.getLooper());
+  }
+
+  void addRequest(Request<?> request) {
+    pendingRequests.add(request);
+  }
+
+  boolean hasPendingWork() {
+    return !pendingRequests.isEmpty() || inFlightRequests != null;
+  }
+
+  /**
+   * Reads the frame that was just drawn, before the surface is swapped.
+   *
+   * @return whether another frame has to be drawn to finish the pending captures.
+   */
+  boolean onFrameDrawn(int width, int height) {
+    if (inFlightRequests != null) {
+      finishPixelBufferRead();
+    }
+    if (pendingRequests.isEmpty()) {
+      return false;
+    }
+    int slot = findFreeSlot();
+    if (slot < 0) {
+      // Both buffers are still being encoded, try again on the next frame instead of waiting.
+      return true;
+    }
+    List<Request<?>> requests = pendingRequests;
+    pendingRequests = new ArrayList<>();
+    int size = width * height * 4;
+    if (usePixelBuffers) {
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffers[slot]);
+      if (size != pixelBufferSizes[slot]) {
+        GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+        pixelBufferSizes[slot] = size;
+      }
+      GLES30.glReadPixels(0, 0, width, height, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, 0);
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+      inFlightRequests = requests;
+      inFlightSlot = slot;
+      inFlightWidth = width;
+      inFlightHeight = height;
+      return true;
+    }
+    ByteBuffer pixels = obtainPixels(slot, size);
+    if (pixels == null) {
+      fail(requests, createBudgetError());
+      return false;
+    }
+    GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+    encode(slot, width, height, requests);
+    return false;
+  }
+
+  /** Fails every pending capture and releases the GL buffers and the encoder thread. */
+  void release() {
+    IllegalStateException error = new IllegalStateException("The preview was released.");
+    for (Request<?> request : pendingRequests) {
+      request.future.setException(error);
+    }
+    pendingRequests.clear();
+    if (inFlightRequests != null) {
+      for (Request<?> request : inFlightRequests) {
+        request.future.setException(error);
+      }
+      inFlightRequests = null;
+    }
+    if (usePixelBuffers) {
+      GLES30.glDeleteBuffers(SLOT_COUNT, pixelBuffers, 0);
+    }
+    for (Slot slot : slots) {
+      memoryBudget.release(MemoryBudget.Category.READBACK_BUFFERS, slot.reservedBytes);
+      slot.reservedBytes = 0;
+    }
+    // Lets captures that were already read back finish encoding.
+    encoderThread.quitSafely();
+  }
+
+  private void finishPixelBufferRead() {
+    int size = inFlightWidth * inFlightHeight * 4;
+    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffers[inFlightSlot]);
+    ByteBuffer mapped =
+        (ByteBuffer)
+            GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, size, GLES30.GL_MAP_READ_BIT);
+    List<Request<?>> requests = inFlightRequests;
+    inFlightRequests = null;
+    if (mapped == null) {
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+      IllegalStateException error =
+          new IllegalStateException(
+              "glMapBufferRange failed: 0x" + Integer.toHexString(GLES20.glGetError()));
+      for (Request<?> request : requests) {
+        request.future.setException(error);
+      }
+      return;
+    }
+    ByteBuffer pixels = obtainPixels(inFlightSlot, size);
+    if (pixels == null) {
+      GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+      fail(requests, createBudgetError());
+      return;
+    }
+    pixels.put(mapped);
+    pixels.rewind();
+    GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+    encode(inFlightSlot, inFlightWidth, inFlightHeight, requests);
+  }
+
+  private int findFreeSlot() {
+    for (int i = 0; i < SLOT_COUNT; i++) {
+      if (!slots[i].busy && !(inFlightRequests != null && inFlightSlot == i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the pixel buffer of {@code slot}, or null if a new one doesn't fit the budget. */
+  @Nullable
+  private ByteBuffer obtainPixels(int slot, int size) {
+    Slot target = slots[slot];
+    if (target.pixels == null || target.pixels.capacity() != size) {
+      target.pixels = null;
+      memoryBudget.release(MemoryBudget.Category.READBACK_BUFFERS, target.reservedBytes);
+      target.reservedBytes = 0;
+      if (!memoryBudget.tryReserve(MemoryBudget.Category.READBACK_BUFFERS, size)) {
+        return null;
+      }
+      target.reservedBytes = size;
+      target.pixels = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+    target.pixels.clear();
+    return target.pixels;
+  }
+
+  private void encode(
+      final int slot, final int width, final int height, final List<Request<?>> requests) {
+    final Slot source = slots[slot];
+    // The raw and the flipped bitmap exist at the same time.
+    final long bitmapBytes = (long) width * height * 4 * 2;
+    if (!memoryBudget.tryReserve(MemoryBudget.Category.READBACK_BUFFERS, bitmapBytes)) {
+      fail(requests, createBudgetError());
+      return;
+    }
+    source.busy = true;
+    encoderHandler.post(
+        () -> {
+          try {
+            decode(source, width, height, requests);
+          } finally {
+            memoryBudget.release(MemoryBudget.Category.READBACK_BUFFERS, bitmapBytes);
+          }
+        });
+  }
+
+  private static void decode(Slot source, int width, int height, List<Request<?>> requests) {
+    Bitmap frame;
+    try {
+      Bitmap raw = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+      source.pixels.rewind();
+      raw.copyPixelsFromBuffer(source.pixels);
+      // GL rows start at the bottom of the image.
+      Matrix flip = new Matrix();
+      flip.postScale(1, -1);
+      frame = Bitmap.createBitmap(raw, 0, 0, width, height, flip, false);
+      raw.recycle();
+    } catch (RuntimeException e) {
+      fail(requests, e);
+      return;
+    } finally {
+      source.busy = false;
+    }
+    for (Request<?> request : requests) {
+      complete(request, frame);
+    }
+    frame.recycle();
+  }
+
+  private static void fail(List<Request<?>> requests, Exception error) {
+    for (Request<?> request : requests) {
+      request.future.setException(error);
+    }
+  }
+
+  private static IllegalStateException createBudgetError() {
+    return new IllegalStateException("The capture exceeds the memory budget.");
+  }
+
+  private static <T> void complete(Request<T> request, Bitmap frame) {
+    try {
+      request.future.set(request.encode(frame));
+    } catch (RuntimeException e) {
+      request.future.setException(e);
+    }
+  }
+
+  private static Bitmap scale(Bitmap frame, int width, int height) {
+    if (width <= 0 || height <= 0 || (width == frame.getWidth() && height == frame.getHeight())) {
+      // The frame is recycled once every request is done with it.
+      return frame.copy(Bitmap.Config.ARGB_8888, false);
+    }
+    return Bitmap.createScaledBitmap(frame, width, height, true);
+  }
+}
@@ -0,0 +1,102 @@
+package io.flutter.plugins.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import androidx.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the most recent encoded samples of a {@link MediaCodecRecorder} in a {@link
+ * SampleRingBuffer} until {@link #commit} is called, then writes the buffered history followed by
+ * the live samples into a single MPEG-4 file.
+ */
+final class PreEventSampleSink implements SampleSink {
+  private final SampleRingBuffer ringBuffer;
+  private final int trackCount;
+  private final Runnable keyFrameRequester;
+  private final MediaFormat[] formats = new MediaFormat[2];
+  private final MediaCodec.BufferInfo bufferedInfo = new MediaCodec.BufferInfo();
+  private final MediaCodec.BufferInfo outputInfo = new MediaCodec.BufferInfo();
+
+  @Nullable private MuxerSampleSink muxer;
+  private long startPresentationTimeUs = -1;
+
+  /**
+   * @param keyFrameRequester invoked when the file is committed while the ring holds no key frame,
+   *     so the file can start as soon as possible.
+   */
+  PreEventSampleSink(
+      int trackCount, int capacityBytes, long preEventDurationUs, Runnable keyFrameRequester) {
+    this.ringBuffer = new SampleRingBuffer(capacityBytes, preEventDurationUs);
+    this.trackCount = trackCount;
+    this.keyFrameRequester = keyFrameRequester;
+  }
+
+  /** Starts writing the buffered samples and everything that follows to {@code filePath}. */
+  synchronized void commit(String filePath, int orientationHint) throws IOException {
+    if (muxer != null) {
+      throw new IllegalStateException("The pre-event recording was already committed.");
+    }
+    muxer = new MuxerSampleSink(filePath, orientationHint, trackCount);
+    for (int track = 0; track < formats.length; track++) {
+      if (formats[track] != null) {
+        muxer.onOutputFormat(track, formats[track]);
+      }
+    }
+    if (ringBuffer.getSampleCount() == 0) {
+      keyFrameRequester.run();
+      return;
+    }
+    ringBuffer.drainTo(
+        (int track, ByteBuffer data, long presentationTimeUs, int flags) -> {
+          bufferedInfo.set(0, data.remaining(), presentationTimeUs, flags);
+          write(track, data, bufferedInfo);
+        });
+  }
+
+  @Override
+  public synchronized void onOutputFormat(int track, MediaFormat format) {
+    formats[track] = format;
+    if (muxer != null) {
+      muxer.onOutputFormat(track, format);
+    }
+  }
+
+  @Override
+  public synchronized void onSample(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+    if (muxer != null) {
+      write(track, data, info);
+    } else {
+      ringBuffer.add(
+          track,
+          data,
+          info.presentationTimeUs,
+          info.flags,
+          track == TRACK_VIDEO && (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+    }
+  }
+
+  @Override
+  public synchronized void release() {
+    ringBuffer.clear();
+    if (muxer != null) {
+      muxer.release();
+    }
+  }
+
+  private void write(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+    if (startPresentationTimeUs < 0) {
+      // The file has to start on a key frame.
+      if (track != TRACK_VIDEO || (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) == 0) {
+        return;
+      }
+      startPresentationTimeUs = info.presentationTimeUs;
+    }
+    if (info.presentationTimeUs < startPresentationTimeUs) {
+      return;
+    }
+    outputInfo.set(0, info.size, info.presentationTimeUs - startPresentationTimeUs, info.flags);
+    muxer.onSample(track, data, outputInfo);
+  }
+}
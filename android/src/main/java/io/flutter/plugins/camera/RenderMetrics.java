@@ -0,0 +1,144 @@
+package io.flutter.plugins.camera;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Opt-in timing statistics of a render loop, kept in fixed-size histograms so that recording a
+ * frame never allocates.
+ *
+ * <p>Values are recorded on the render thread and read through {@link #snapshot} from any thread.
+ */
+final class RenderMetrics {
+  /** Non-negative values, mostly durations in microseconds, bucketed by powers of two. */
+  static final class Histogram {
+    // Bucket i holds values in [2^(i-1), 2^i), bucket 0 holds zero.
+    private static final int BUCKET_COUNT = 32;
+
+    private final long[] buckets = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long max;
+
+    void record(long value) {
+      if (value < 0) {
+        value = 0;
+      }
+      int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(value));
+      buckets[bucket]++;
+      count++;
+      sum += value;
+      max = Math.max(max, value);
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    /** Returns the upper bound of the bucket that holds the given percentile. */
+    long getPercentile(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(count * percentile / 100);
+      long seen = 0;
+      for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+        seen += buckets[bucket];
+        if (seen >= rank) {
+          return Math.min(max, (1L << bucket) - 1);
+        }
+      }
+      return max;
+    }
+
+    void reset() {
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        buckets[i] = 0;
+      }
+      count = 0;
+      sum = 0;
+      max = 0;
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> map = new HashMap<>();
+      map.put("count", count);
+      map.put("mean", count > 0 ? sum / count : 0);
+      map.put("max", max);
+      map.put("p50", getPercentile(50));
+      map.put("p90", getPercentile(90));
+      map.put("p99", getPercentile(99));
+      return map;
+    }
+  }
+
+  final Histogram updateTexImageUs = new Histogram();
+  final Histogram encoderNotifyUs = new Histogram();
+  final Histogram drawUs = new Histogram();
+  final Histogram swapUs = new Histogram();
+  final Histogram frameIntervalUs = new Histogram();
+  final Histogram frameJitterUs = new Histogram();
+  // Delay between the frame that queued a render and the start of that render.
+  final Histogram queueDelayUs = new Histogram();
+  // Frames the camera delivered per rendered frame, above one means frames were coalesced.
+  final Histogram framesPerDraw = new Histogram();
+
+  private volatile boolean enabled;
+  private long lastFrameNanos = -1;
+  private long lastIntervalUs = -1;
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Records the start of a frame at {@code frameNanos}, which was queued at {@code queuedNanos}.
+   */
+  synchronized void recordFrameStart(long frameNanos, long queuedNanos, long framesSinceLastDraw) {
+    if (lastFrameNanos >= 0) {
+      long intervalUs = (frameNanos - lastFrameNanos) / 1000;
+      frameIntervalUs.record(intervalUs);
+      if (lastIntervalUs >= 0) {
+        frameJitterUs.record(Math.abs(intervalUs - lastIntervalUs));
+      }
+      lastIntervalUs = intervalUs;
+    }
+    lastFrameNanos = frameNanos;
+    queueDelayUs.record((frameNanos - queuedNanos) / 1000);
+    framesPerDraw.record(framesSinceLastDraw);
+  }
+
+  synchronized void record(Histogram histogram, long startNanos, long endNanos) {
+    histogram.record((endNanos - startNanos) / 1000);
+  }
+
+  synchronized void reset() {
+    updateTexImageUs.reset();
+    encoderNotifyUs.reset();
+    drawUs.reset();
+    swapUs.reset();
+    frameIntervalUs.reset();
+    frameJitterUs.reset();
+    queueDelayUs.reset();
+    framesPerDraw.reset();
+    lastFrameNanos = -1;
+    lastIntervalUs = -1;
+  }
+
+  synchronized Map<String, Object> snapshot() {
+    Map<String, Object> metrics = new HashMap<>();
+    metrics.put("updateTexImageUs", updateTexImageUs.toMap());
+    metrics.put("encoderNotifyUs", encoderNotifyUs.toMap());
+    metrics.put("drawUs", drawUs.toMap());
+    metrics.put("swapUs", swapUs.toMap());
+    metrics.put("frameIntervalUs", frameIntervalUs.toMap());
+    metrics.put("frameJitterUs", frameJitterUs.toMap());
+    metrics.put("queueDelayUs", queueDelayUs.toMap());
+    metrics.put("framesPerDraw", framesPerDraw.toMap());
+    return metrics;
+  }
+}
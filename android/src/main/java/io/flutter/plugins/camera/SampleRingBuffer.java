@@ -0,0 +1,171 @@
+package io.flutter.plugins.camera;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * A bounded in-memory ring of encoded samples that always starts on a video key frame.
+ *
+ * <p>Sample data is copied into a single buffer allocated up front, so memory use is fixed at
+ * {@code capacityBytes} no matter how long the ring runs. Whole groups of pictures are evicted from
+ * the head once the ring is full or holds more than {@code maxDurationUs} of video.
+ */
+final class SampleRingBuffer {
+  interface SampleConsumer {
+    void accept(int track, ByteBuffer data, long presentationTimeUs, int flags);
+  }
+
+  private static final class Sample {
+    final int track;
+    final int offset;
+    final int size;
+    final long presentationTimeUs;
+    final int flags;
+    final boolean isVideoKeyFrame;
+
+    Sample(int track, int offset, int size, long presentationTimeUs, int flags, boolean keyFrame) {
+      this.track = track;
+      this.offset = offset;
+      this.size = size;
+      this.presentationTimeUs = presentationTimeUs;
+      this.flags = flags;
+      this.isVideoKeyFrame = keyFrame;
+    }
+  }
+
+  private final ByteBuffer storage;
+  private final long maxDurationUs;
+  private final ArrayDeque<Sample> samples = new ArrayDeque<>();
+  private final ArrayDeque<Sample> keyFrames = new ArrayDeque<>();
+  private int writeOffset;
+  private int usedBytes;
+
+  SampleRingBuffer(int capacityBytes, long maxDurationUs) {
+    this.storage = ByteBuffer.allocateDirect(capacityBytes);
+    this.maxDurationUs = maxDurationUs;
+  }
+
+  int getCapacityBytes() {
+    return storage.capacity();
+  }
+
+  int getUsedBytes() {
+    return usedBytes;
+  }
+
+  int getSampleCount() {
+    return samples.size();
+  }
+
+  /** Returns the span between the first key frame and the newest sample. */
+  long getBufferedDurationUs() {
+    if (samples.isEmpty()) {
+      return 0;
+    }
+    return samples.peekLast().presentationTimeUs - samples.peekFirst().presentationTimeUs;
+  }
+
+  /**
+   * Appends a sample, evicting the oldest groups of pictures as needed.
+   *
+   * @return false if the sample was dropped because the ring has no key frame to start from.
+   */
+  boolean add(
+      int track, ByteBuffer data, long presentationTimeUs, int flags, boolean isVideoKeyFrame) {
+    // Without a key frame at the head nothing in the ring could be decoded.
+    if (samples.isEmpty() && !isVideoKeyFrame) {
+      return false;
+    }
+
+    int size = data.remaining();
+    int offset = allocate(size);
+    while (offset < 0 && evictOldestGroup()) {
+      offset = allocate(size);
+    }
+    if (offset < 0) {
+      // A single group of pictures doesn't fit, start over from the next key frame.
+      clear();
+      if (!isVideoKeyFrame || size > storage.capacity()) {
+        return false;
+      }
+      offset = 0;
+    }
+
+    ByteBuffer target = storage.duplicate();
+    target.position(offset);
+    target.put(data);
+    writeOffset = offset + size;
+    usedBytes += size;
+
+    Sample sample = new Sample(track, offset, size, presentationTimeUs, flags, isVideoKeyFrame);
+    samples.addLast(sample);
+    if (isVideoKeyFrame) {
+      keyFrames.addLast(sample);
+      trimToDuration();
+    }
+    return true;
+  }
+
+  /** Hands every buffered sample, oldest first, to {@code consumer} and empties the ring. */
+  void drainTo(SampleConsumer consumer) {
+    for (Sample sample : samples) {
+      ByteBuffer data = storage.duplicate();
+      data.limit(sample.offset + sample.size);
+      data.position(sample.offset);
+      consumer.accept(sample.track, data, sample.presentationTimeUs, sample.flags);
+    }
+    clear();
+  }
+
+  void clear() {
+    samples.clear();
+    keyFrames.clear();
+    writeOffset = 0;
+    usedBytes = 0;
+  }
+
+  /** Returns the offset to write {@code size} bytes at, or -1 if there is no room. */
+  private int allocate(int size) {
+    if (samples.isEmpty()) {
+      return size <= storage.capacity() ? 0 : -1;
+    }
+    // Samples are kept contiguous. The write offset never catches up with the head, so that an
+    // equal offset always means an empty ring.
+    int headOffset = samples.peekFirst().offset;
+    if (writeOffset >= headOffset) {
+      if (storage.capacity() - writeOffset >= size) {
+        return writeOffset;
+      }
+      return headOffset > size ? 0 : -1;
+    }
+    return headOffset - writeOffset > size ? writeOffset : -1;
+  }
+
+  /** Drops the samples up to the second key frame. Returns false if there is only one group. */
+  private boolean evictOldestGroup() {
+    if (keyFrames.size() < 2) {
+      return false;
+    }
+    keyFrames.removeFirst();
+    Sample nextKeyFrame = keyFrames.peekFirst();
+    while (samples.peekFirst() != nextKeyFrame) {
+      usedBytes -= samples.removeFirst().size;
+    }
+    return true;
+  }
+
+  private void trimToDuration() {
+    // Keep at least maxDurationUs of history: only drop the oldest group if the rest still covers
+    // the full duration.
+    while (keyFrames.size() >= 2) {
+      Iterator<Sample> iterator = keyFrames.iterator();
+      iterator.next();
+      long secondKeyFrameUs = iterator.next().presentationTimeUs;
+      if (samples.peekLast().presentationTimeUs - secondKeyFrameUs < maxDurationUs) {
+        return;
+      }
+      evictOldestGroup();
+    }
+  }
+}
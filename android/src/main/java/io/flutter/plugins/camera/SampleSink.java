@@ -0,0 +1,26 @@
+package io.flutter.plugins.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the encoded output of a {@link MediaCodecRecorder}.
+ *
+ * <p>Video and audio are drained on separate threads, so implementations must be thread safe.
+ */
+interface SampleSink {
+  int TRACK_VIDEO = 0;
+  int TRACK_AUDIO = 1;
+
+  void onOutputFormat(int track, MediaFormat format);
+
+  /**
+   * Called for every encoded sample. {@code data} is only valid for the duration of the call and is
+   * positioned at the sample.
+   */
+  void onSample(int track, ByteBuffer data, MediaCodec.BufferInfo info);
+
+  /** Called once after both encoders reached the end of their streams. */
+  void release();
+}
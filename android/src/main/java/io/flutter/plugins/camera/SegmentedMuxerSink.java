@@ -0,0 +1,209 @@
+package io.flutter.plugins.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Writes the encoded samples of a {@link MediaCodecRecorder} into a sequence of MPEG-4 files that
+ * are rotated once a segment reaches a maximum duration or size.
+ *
+ * <p>Segments always start on a video key frame, so no frame is dropped or duplicated at the
+ * boundaries. Audio lags video through the encoders, so the previous segment stays open for the
+ * audio from before the boundary until audio passes it. Every segment is rebased to start at a
+ * presentation time of zero.
+ */
+final class SegmentedMuxerSink implements SampleSink {
+  interface Callback {
+    /** A segment was finalized and can be consumed. Called on an encoder thread. */
+    void onSegmentFinished(String filePath);
+
+    /** The current segment is full and should be closed at the next key frame. */
+    void onKeyFrameNeeded();
+
+    /**
+     * A segment could not be created or finished. Samples are dropped from then on, so the
+     * recording should be stopped. Called once, on an encoder thread.
+     */
+    void onError(String description);
+  }
+
+  private final String outputFilePath;
+  private final int orientationHint;
+  private final int trackCount;
+  private final long maxDurationUs;
+  private final long maxSizeBytes;
+  private final Callback callback;
+
+  private final MediaFormat[] formats = new MediaFormat[2];
+  private final MediaCodec.BufferInfo segmentInfo = new MediaCodec.BufferInfo();
+  @Nullable private MuxerSampleSink segment;
+  @Nullable private String segmentPath;
+  private int segmentIndex;
+  private long segmentStartUs;
+  // The previous segment while it waits for the rest of its audio.
+  @Nullable private MuxerSampleSink previousSegment;
+  @Nullable private String previousSegmentPath;
+  private long previousSegmentStartUs;
+  private long segmentSizeBytes;
+  private boolean keyFrameRequested;
+  private boolean failed;
+
+  /**
+   * @param outputFilePath the segments are named after this path, with a running index inserted
+   *     before the extension.
+   * @param maxDurationUs the segment duration, or 0 for no limit.
+   * @param maxSizeBytes the segment size, or 0 for no limit.
+   */
+  SegmentedMuxerSink(
+      String outputFilePath,
+      int orientationHint,
+      int trackCount,
+      long maxDurationUs,
+      long maxSizeBytes,
+      Callback callback) {
+    this.outputFilePath = outputFilePath;
+    this.orientationHint = orientationHint;
+    this.trackCount = trackCount;
+    this.maxDurationUs = maxDurationUs;
+    this.maxSizeBytes = maxSizeBytes;
+    this.callback = callback;
+  }
+
+  /** Returns the path of segment {@code index}, named after {@code outputFilePath}. */
+  static String getSegmentPath(String outputFilePath, int index) {
+    int extensionIndex = outputFilePath.lastIndexOf('.');
+    if (extensionIndex <= outputFilePath.lastIndexOf('/')) {
+      extensionIndex = outputFilePath.length();
+    }
+    return String.format(
+        Locale.US,
+        "%s_%03d%s",
+        outputFilePath.substring(0, extensionIndex),
+        index,
+        outputFilePath.substring(extensionIndex));
+  }
+
+  @Override
+  public synchronized void onOutputFormat(int track, MediaFormat format) {
+    formats[track] = format;
+    if (segment != null) {
+      segment.onOutputFormat(track, format);
+    }
+  }
+
+  @Override
+  public synchronized void onSample(int track, ByteBuffer data, MediaCodec.BufferInfo info) {
+    if (failed) {
+      return;
+    }
+    boolean isKeyFrame =
+        track == TRACK_VIDEO && (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+    if (isKeyFrame && (segment == null || isSegmentFull(info.presentationTimeUs))) {
+      startSegment(info.presentationTimeUs);
+    } else if (segment != null && !keyFrameRequested && isSegmentFull(info.presentationTimeUs)) {
+      keyFrameRequested = true;
+      callback.onKeyFrameNeeded();
+    }
+
+    if (track == TRACK_AUDIO && previousSegment != null) {
+      if (info.presentationTimeUs < segmentStartUs) {
+        if (info.presentationTimeUs >= previousSegmentStartUs) {
+          segmentInfo.set(
+              0, info.size, info.presentationTimeUs - previousSegmentStartUs, info.flags);
+          previousSegment.onSample(track, data, segmentInfo);
+        }
+        return;
+      }
+      finishPreviousSegment();
+    }
+    // Audio captured before the first key frame has nothing to play against.
+    if (segment == null || info.presentationTimeUs < segmentStartUs) {
+      return;
+    }
+    segmentInfo.set(0, info.size, info.presentationTimeUs - segmentStartUs, info.flags);
+    segment.onSample(track, data, segmentInfo);
+    segmentSizeBytes += info.size;
+  }
+
+  @Override
+  public synchronized void release() {
+    finishPreviousSegment();
+    finishSegment();
+  }
+
+  private boolean isSegmentFull(long presentationTimeUs) {
+    return (maxDurationUs > 0 && presentationTimeUs - segmentStartUs >= maxDurationUs)
+        || (maxSizeBytes > 0 && segmentSizeBytes >= maxSizeBytes);
+  }
+
+  private void startSegment(long presentationTimeUs) {
+    finishPreviousSegment();
+    if (trackCount > 1 && segment != null) {
+      previousSegment = segment;
+      previousSegmentPath = segmentPath;
+      previousSegmentStartUs = segmentStartUs;
+      segment = null;
+      segmentPath = null;
+    } else {
+      finishSegment();
+    }
+
+    String path = getSegmentPath(outputFilePath, segmentIndex++);
+    if (new File(path).exists()) {
+      // Like single file recordings, segments never overwrite existing files.
+      fail("File at path '" + path + "' already exists.");
+      return;
+    }
+    try {
+      segment = new MuxerSampleSink(path, orientationHint, trackCount);
+    } catch (IOException e) {
+      fail("Failed to create video segment: " + e.getMessage());
+      return;
+    }
+    segmentPath = path;
+    segmentStartUs = presentationTimeUs;
+    segmentSizeBytes = 0;
+    keyFrameRequested = false;
+    for (int track = 0; track < formats.length; track++) {
+      if (formats[track] != null) {
+        segment.onOutputFormat(track, formats[track]);
+      }
+    }
+  }
+
+  private void finishSegment() {
+    finish(segment, segmentPath);
+    segment = null;
+    segmentPath = null;
+  }
+
+  private void finishPreviousSegment() {
+    finish(previousSegment, previousSegmentPath);
+    previousSegment = null;
+    previousSegmentPath = null;
+  }
+
+  private void finish(@Nullable MuxerSampleSink sink, @Nullable String path) {
+    if (sink == null) {
+      return;
+    }
+    try {
+      sink.release();
+      callback.onSegmentFinished(path);
+    } catch (IllegalStateException e) {
+      fail("Failed to finish video segment: " + e.getMessage());
+    }
+  }
+
+  private void fail(String description) {
+    if (!failed) {
+      failed = true;
+      callback.onError(description);
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package io.flutter.plugins.camera;
+
+import android.os.Handler;
+import androidx.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link Future} completed by whoever produces its value, typically a render or camera thread.
+ *
+ * <p>Callers either block with a deadline through {@link #get(long, TimeUnit)} or get notified on a
+ * thread of their choice through {@link #addCallback}, which also fails the future once its
+ * deadline passes.
+ */
+final class SettableFuture<T> implements Future<T> {
+  interface Callback<T> {
+    void onSuccess(T result);
+
+    void onFailure(Exception error);
+  }
+
+  private final CountDownLatch done = new CountDownLatch(1);
+  private final List<Runnable> listeners = new ArrayList<>();
+  private boolean completed;
+  private T value;
+  private Exception error;
+  private boolean cancelled;
+
+  /** Completes the future with {@code value}. Returns false if it was already completed. */
+  boolean set(T value) {
+    return complete(value, null, false);
+  }
+
+  /** Fails the future with {@code error}. Returns false if it was already completed. */
+  boolean setException(Exception error) {
+    return complete(null, error, false);
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return complete(null, null, true);
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return completed;
+  }
+
+  @Override
+  public T get() throws InterruptedException, ExecutionException {
+    done.await();
+    return getValue();
+  }
+
+  @Override
+  public T get(long timeout, @NonNull TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    if (!done.await(timeout, unit)) {
+      throw new TimeoutException("Timed out after " + unit.toMillis(timeout) + "ms.");
+    }
+    return getValue();
+  }
+
+  /**
+   * Calls {@code callback} on {@code handler} once the future completes. If it hasn't completed
+   * within {@code timeoutMs}, the future fails with a {@link TimeoutException}.
+   */
+  void addCallback(final Callback<T> callback, final Handler handler, final long timeoutMs) {
+    final Runnable timeout =
+        () -> setException(new TimeoutException("Timed out after " + timeoutMs + "ms."));
+    final Runnable listener =
+        () -> {
+          handler.removeCallbacks(timeout);
+          handler.post(() -> deliver(callback));
+        };
+    synchronized (this) {
+      if (!completed) {
+        listeners.add(listener);
+        handler.postDelayed(timeout, timeoutMs);
+        return;
+      }
+    }
+    listener.run();
+  }
+
+  private boolean complete(T value, Exception error, boolean cancelled) {
+    List<Runnable> pendingListeners;
+    synchronized (this) {
+      if (completed) {
+        return false;
+      }
+      completed = true;
+      this.value = value;
+      this.error = error;
+      this.cancelled = cancelled;
+      pendingListeners = new ArrayList<>(listeners);
+      listeners.clear();
+    }
+    done.countDown();
+    for (Runnable listener : pendingListeners) {
+      listener.run();
+    }
+    return true;
+  }
+
+  private void deliver(Callback<T> callback) {
+    final T result;
+    try {
+      result = getValue();
+    } catch (ExecutionException e) {
+      callback.onFailure((Exception) e.getCause());
+      return;
+    } catch (CancellationException e) {
+      callback.onFailure(e);
+      return;
+    }
+    callback.onSuccess(result);
+  }
+
+  private synchronized T getValue() throws ExecutionException {
+    if (cancelled) {
+      throw new CancellationException();
+    }
+    if (error != null) {
+      throw new ExecutionException(error);
+    }
+    return value;
+  }
+}
@@ -0,0 +1,245 @@
+package io.flutter.plugins.camera;
+
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Picks the output sizes of a capture session that the device guarantees to support together and
+ * that sustain a target frame rate.
+ *
+ * <p>Outputs are given in order of priority. The result makes the first output as large as
+ * possible, then the second and so on, such that the outputs match one of the guaranteed stream
+ * combinations of the hardware level, and the frame duration of the repeating request fits the
+ * target frame rate. That duration is the longest minimum frame duration of the repeating outputs
+ * plus their longest stall duration.
+ *
+ * <p>Free of Android types so that it can be unit tested.
+ */
+final class StreamSizeSelector {
+  enum HardwareLevel {
+    LEGACY,
+    LIMITED,
+    FULL,
+    LEVEL_3,
+  }
+
+  enum Format {
+    PRIVATE,
+    YUV,
+    JPEG,
+  }
+
+  /** The size classes of the guaranteed combinations, from smallest to largest. */
+  private enum SizeClass {
+    VGA,
+    PREVIEW,
+    RECORD,
+    MAXIMUM,
+  }
+
+  /** A supported size of an output with its frame duration limits. */
+  static final class Candidate {
+    final int width;
+    final int height;
+    final long minFrameDurationNs;
+    final long stallDurationNs;
+
+    Candidate(int width, int height, long minFrameDurationNs, long stallDurationNs) {
+      this.width = width;
+      this.height = height;
+      this.minFrameDurationNs = minFrameDurationNs;
+      this.stallDurationNs = stallDurationNs;
+    }
+
+    long getArea() {
+      return (long) width * height;
+    }
+  }
+
+  /** An output of the session and the sizes it can have. */
+  static final class Output {
+    final Format format;
+    // Targets of the repeating request limit the frame rate, still capture outputs don't.
+    final boolean repeating;
+    final List<Candidate> candidates;
+
+    Output(Format format, boolean repeating, List<Candidate> candidates) {
+      this.format = format;
+      this.repeating = repeating;
+      this.candidates = new ArrayList<>(candidates);
+      Collections.sort(this.candidates, (a, b) -> Long.compare(b.getArea(), a.getArea()));
+    }
+  }
+
+  private static final class Slot {
+    final Format format;
+    final SizeClass sizeClass;
+
+    Slot(Format format, SizeClass sizeClass) {
+      this.format = format;
+      this.sizeClass = sizeClass;
+    }
+  }
+
+  private static final long VGA_AREA = 640 * 480;
+
+  private final List<Slot[]> combinations = new ArrayList<>();
+  private final long previewArea;
+  private final long recordArea;
+
+  /**
+   * {@code previewWidth} and {@code previewHeight} bound the PREVIEW size class, the smaller of the
+   * display and 1080p. {@code recordWidth} and {@code recordHeight} bound the RECORD class, the
+   * largest camcorder profile.
+   */
+  StreamSizeSelector(
+      HardwareLevel level, int previewWidth, int previewHeight, int recordWidth, int recordHeight) {
+    previewArea = (long) previewWidth * previewHeight;
+    recordArea = (long) recordWidth * recordHeight;
+    addGuaranteedCombinations(level);
+  }
+
+  /**
+   * Returns the chosen candidate of each output, in the order of {@code outputs}, or null if no
+   * combination qualifies.
+   */
+  @Nullable
+  List<Candidate> select(List<Output> outputs, int targetFps) {
+    long maxFrameDurationNs = 1_000_000_000L / targetFps;
+    Candidate[] chosen = new Candidate[outputs.size()];
+    if (!search(outputs, 0, chosen, maxFrameDurationNs)) {
+      return null;
+    }
+    return Arrays.asList(chosen);
+  }
+
+  private boolean search(
+      List<Output> outputs, int index, Candidate[] chosen, long maxFrameDurationNs) {
+    if (index == outputs.size()) {
+      return getFrameDurationNs(outputs, chosen) <= maxFrameDurationNs
+          && isGuaranteed(outputs, chosen);
+    }
+    Output output = outputs.get(index);
+    for (Candidate candidate : output.candidates) {
+      if (output.repeating
+          && candidate.minFrameDurationNs + candidate.stallDurationNs > maxFrameDurationNs) {
+        continue;
+      }
+      chosen[index] = candidate;
+      if (search(outputs, index + 1, chosen, maxFrameDurationNs)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static long getFrameDurationNs(List<Output> outputs, Candidate[] chosen) {
+    long minFrameDurationNs = 0;
+    long stallDurationNs = 0;
+    for (int i = 0; i < chosen.length; i++) {
+      if (outputs.get(i).repeating) {
+        minFrameDurationNs = Math.max(minFrameDurationNs, chosen[i].minFrameDurationNs);
+        stallDurationNs = Math.max(stallDurationNs, chosen[i].stallDurationNs);
+      }
+    }
+    return minFrameDurationNs + stallDurationNs;
+  }
+
+  private boolean isGuaranteed(List<Output> outputs, Candidate[] chosen) {
+    // Leaving outputs of a guaranteed combination out keeps it guaranteed.
+    for (Slot[] combination : combinations) {
+      if (chosen.length <= combination.length
+          && matches(outputs, chosen, 0, combination, new boolean[combination.length])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Whether each output from {@code index} on fits a slot of its format and size class. */
+  private boolean matches(
+      List<Output> outputs, Candidate[] chosen, int index, Slot[] combination, boolean[] used) {
+    if (index == chosen.length) {
+      return true;
+    }
+    Format format = outputs.get(index).format;
+    SizeClass sizeClass = getSizeClass(chosen[index]);
+    for (int slot = 0; slot < combination.length; slot++) {
+      if (used[slot]
+          || combination[slot].format != format
+          || combination[slot].sizeClass.compareTo(sizeClass) < 0) {
+        continue;
+      }
+      used[slot] = true;
+      if (matches(outputs, chosen, index + 1, combination, used)) {
+        return true;
+      }
+      used[slot] = false;
+    }
+    return false;
+  }
+
+  private SizeClass getSizeClass(Candidate candidate) {
+    long area = candidate.getArea();
+    if (area <= VGA_AREA) {
+      return SizeClass.VGA;
+    } else if (area <= previewArea) {
+      return SizeClass.PREVIEW;
+    } else if (area <= recordArea) {
+      return SizeClass.RECORD;
+    }
+    return SizeClass.MAXIMUM;
+  }
+
+  // The tables of CameraDevice#createCaptureSession, each level includes the ones below it.
+  private void addGuaranteedCombinations(HardwareLevel level) {
+    Slot privPreview = new Slot(Format.PRIVATE, SizeClass.PREVIEW);
+    Slot yuvPreview = new Slot(Format.YUV, SizeClass.PREVIEW);
+    Slot jpegMaximum = new Slot(Format.JPEG, SizeClass.MAXIMUM);
+    combinations.add(new Slot[] {new Slot(Format.PRIVATE, SizeClass.MAXIMUM)});
+    combinations.add(new Slot[] {jpegMaximum});
+    combinations.add(new Slot[] {new Slot(Format.YUV, SizeClass.MAXIMUM)});
+    combinations.add(new Slot[] {privPreview, jpegMaximum});
+    combinations.add(new Slot[] {yuvPreview, jpegMaximum});
+    combinations.add(new Slot[] {privPreview, privPreview});
+    combinations.add(new Slot[] {privPreview, yuvPreview});
+    combinations.add(new Slot[] {privPreview, yuvPreview, jpegMaximum});
+    if (level == HardwareLevel.LEGACY) {
+      return;
+    }
+
+    Slot privRecord = new Slot(Format.PRIVATE, SizeClass.RECORD);
+    Slot yuvRecord = new Slot(Format.YUV, SizeClass.RECORD);
+    Slot jpegRecord = new Slot(Format.JPEG, SizeClass.RECORD);
+    combinations.add(new Slot[] {privPreview, privRecord});
+    combinations.add(new Slot[] {privPreview, yuvRecord});
+    combinations.add(new Slot[] {yuvPreview, yuvRecord});
+    combinations.add(new Slot[] {privPreview, privRecord, jpegRecord});
+    combinations.add(new Slot[] {privPreview, yuvRecord, jpegRecord});
+    combinations.add(new Slot[] {yuvPreview, yuvPreview, jpegMaximum});
+    if (level == HardwareLevel.LIMITED) {
+      return;
+    }
+
+    Slot privMaximum = new Slot(Format.PRIVATE, SizeClass.MAXIMUM);
+    Slot yuvMaximum = new Slot(Format.YUV, SizeClass.MAXIMUM);
+    Slot yuvVga = new Slot(Format.YUV, SizeClass.VGA);
+    combinations.add(new Slot[] {privPreview, privMaximum});
+    combinations.add(new Slot[] {privPreview, yuvMaximum});
+    combinations.add(new Slot[] {yuvPreview, yuvMaximum});
+    combinations.add(new Slot[] {privPreview, privPreview, jpegMaximum});
+    combinations.add(new Slot[] {yuvVga, privPreview, yuvMaximum});
+    combinations.add(new Slot[] {yuvVga, yuvPreview, yuvMaximum});
+    if (level == HardwareLevel.FULL) {
+      return;
+    }
+
+    // The LEVEL_3 combinations without their RAW output.
+    Slot privVga = new Slot(Format.PRIVATE, SizeClass.VGA);
+    combinations.add(new Slot[] {privPreview, privVga, yuvMaximum});
+    combinations.add(new Slot[] {privPreview, privVga, jpegMaximum});
+  }
+}
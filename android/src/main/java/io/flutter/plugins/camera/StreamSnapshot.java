@@ -0,0 +1,174 @@
+package io.flutter.plugins.camera;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+import android.os.Handler;
+import android.os.HandlerThread;
+import io.flutter.plugin.common.MethodChannel.Result;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Saves image stream frames as JPEG files without a still capture.
+ *
+ * <p>Requests wait for the next frame of the stream. That frame is copied to NV21 on the camera
+ * thread, so the image can go back to its reader right away, and encoded on a separate encoder
+ * thread. The copy is counted against the {@link MemoryBudget} until it is encoded, and requests
+ * fail instead when it doesn't fit. Not thread safe otherwise, a camera only uses it on its own
+ * thread.
+ */
+final class StreamSnapshot {
+  private static final class Request {
+    final File file;
+    final int quality;
+    final Result result;
+
+    Request(File file, int quality, Result result) {
+      this.file = file;
+      this.quality = quality;
+      this.result = result;
+    }
+  }
+
+  private final MemoryBudget memoryBudget;
+  private List<Request> pendingRequests = new ArrayList<>();
+  private HandlerThread encoderThread;
+  private Handler encoderHandler;
+
+  StreamSnapshot(MemoryBudget memoryBudget) {
+    this.memoryBudget = memoryBudget;
+  }
+
+  void addRequest(File file, int quality, Result result) {
+    pendingRequests.add(new Request(file, quality, result));
+  }
+
+  boolean hasPendingRequests() {
+    return !pendingRequests.isEmpty();
+  }
+
+  /** Completes the pending requests with {@code image}, a YUV_420_888 frame the caller owns. */
+  void onFrame(Image image) {
+    if (pendingRequests.isEmpty()) {
+      return;
+    }
+    final List<Request> requests = pendingRequests;
+    pendingRequests = new ArrayList<>();
+    final int width = image.getWidth();
+    final int height = image.getHeight();
+    final long frameBytes = (long) width * height * 3 / 2;
+    if (!memoryBudget.tryReserve(MemoryBudget.Category.SNAPSHOT_FRAMES, frameBytes)) {
+      for (Request request : requests) {
+        request.result.error("captureFailure", "The snapshot exceeds the memory budget.", null);
+      }
+      return;
+    }
+    Image.Plane[] planes = image.getPlanes();
+    ByteBuffer[] planeBuffers = new ByteBuffer[planes.length];
+    int[] rowStrides = new int[planes.length];
+    int[] pixelStrides = new int[planes.length];
+    for (int i = 0; i < planes.length; i++) {
+      planeBuffers[i] = planes[i].getBuffer();
+      rowStrides[i] = planes[i].getRowStride();
+      pixelStrides[i] = planes[i].getPixelStride();
+    }
+    final byte[] nv21 = toNv21(width, height, planeBuffers, rowStrides, pixelStrides);
+
+    getEncoderHandler()
+        .post(
+            () -> {
+              try {
+                encode(nv21, width, height, requests);
+              } finally {
+                memoryBudget.release(MemoryBudget.Category.SNAPSHOT_FRAMES, frameBytes);
+              }
+            });
+  }
+
+  private static void encode(byte[] nv21, int width, int height, List<Request> requests) {
+    YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+    for (Request request : requests) {
+      try (FileOutputStream outputStream = new FileOutputStream(request.file)) {
+        if (!yuvImage.compressToJpeg(
+            new Rect(0, 0, width, height), request.quality, outputStream)) {
+          throw new IOException("Failed to encode the frame");
+        }
+        request.result.success(null);
+      } catch (IOException e) {
+        request.result.error("IOError", "Failed saving image", null);
+      }
+    }
+  }
+
+  /** Fails the pending requests, for when the stream stops before their frame arrived. */
+  void failPendingRequests(String message) {
+    for (Request request : pendingRequests) {
+      request.result.error("captureFailure", message, null);
+    }
+    pendingRequests.clear();
+  }
+
+  /** Lets the encoder thread finish the frames it has and stops it. */
+  void release() {
+    if (encoderThread != null) {
+      encoderThread.quitSafely();
+      encoderThread = null;
+      encoderHandler = null;
+    }
+  }
+
+  private Handler getEncoderHandler() {
+    if (encoderHandler == null) {
+      encoderThread = new HandlerThread("StreamSnapshotEncoder");
+      encoderThread.start();
+      encoderHandler = new Handler(encoderThread.getLooper());
+    }
+    return encoderHandler;
+  }
+
+  /**
+   * Packs the Y, U and V planes of a YUV_420_888 frame into NV21, the layout {@link YuvImage}
+   * takes: the rows of Y without padding, followed by interleaved V and U samples.
+   */
+  static byte[] toNv21(
+      int width, int height, ByteBuffer[] planeBuffers, int[] rowStrides, int[] pixelStrides) {
+    int lumaSize = width * height;
+    int chromaWidth = width / 2;
+    int chromaHeight = height / 2;
+    byte[] nv21 = new byte[lumaSize + chromaWidth * chromaHeight * 2];
+
+    ByteBuffer luma = planeBuffers[0];
+    int lumaBase = luma.position();
+    for (int row = 0; row < height; row++) {
+      int rowStart = lumaBase + row * rowStrides[0];
+      if (pixelStrides[0] == 1) {
+        ByteBuffer rowBuffer = luma.duplicate();
+        rowBuffer.position(rowStart);
+        rowBuffer.get(nv21, row * width, width);
+      } else {
+        for (int col = 0; col < width; col++) {
+          nv21[row * width + col] = luma.get(rowStart + col * pixelStrides[0]);
+        }
+      }
+    }
+
+    ByteBuffer u = planeBuffers[1];
+    ByteBuffer v = planeBuffers[2];
+    int uBase = u.position();
+    int vBase = v.position();
+    int out = lumaSize;
+    for (int row = 0; row < chromaHeight; row++) {
+      for (int col = 0; col < chromaWidth; col++) {
+        nv21[out++] = v.get(vBase + row * rowStrides[2] + col * pixelStrides[2]);
+        nv21[out++] = u.get(uBase + row * rowStrides[1] + col * pixelStrides[1]);
+      }
+    }
+    return nv21;
+  }
+}
@@ -0,0 +1,68 @@
+package io.flutter.plugins.camera;
+
+import android.graphics.SurfaceTexture;
+import android.view.Surface;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates the output surface of each texture a camera renders to once, hands the same one to every
+ * capture session and releases them all when the camera closes.
+ *
+ * <p>Not thread safe, a camera only uses it on its own thread.
+ */
+final class SurfaceManager {
+  /** Creates and releases surfaces, replaced in tests. */
+  interface SurfaceFactory {
+    Surface create(SurfaceTexture surfaceTexture);
+
+    void release(Surface surface);
+  }
+
+  private static final SurfaceFactory DEFAULT_FACTORY =
+      new SurfaceFactory() {
+        @Override
+        public Surface create(SurfaceTexture surfaceTexture) {
+          return new Surface(surfaceTexture);
+        }
+
+        @Override
+        public void release(Surface surface) {
+          surface.release();
+        }
+      };
+
+  private final SurfaceFactory factory;
+  private final Map<SurfaceTexture, Surface> surfaces = new HashMap<>();
+
+  SurfaceManager() {
+    this(DEFAULT_FACTORY);
+  }
+
+  SurfaceManager(SurfaceFactory factory) {
+    this.factory = factory;
+  }
+
+  /** Returns the surface of {@code surfaceTexture}, creating it the first time. */
+  Surface getSurface(SurfaceTexture surfaceTexture) {
+    Surface surface = surfaces.get(surfaceTexture);
+    if (surface == null) {
+      surface = factory.create(surfaceTexture);
+      surfaces.put(surfaceTexture, surface);
+    }
+    return surface;
+  }
+
+  /** Returns how many surfaces are alive. */
+  int getSurfaceCount() {
+    return surfaces.size();
+  }
+
+  /** Releases every surface. Later calls to {@link #getSurface} create new ones. */
+  void release() {
+    for (Surface surface : surfaces.values()) {
+      factory.release(surface);
+    }
+    surfaces.clear();
+  }
+}
@@ -1,7 +1,9 @@
 package io.flutter.plugins.camera;
 import android.graphics.Bitmap;
 import android.graphics.SurfaceTexture;
+import android.opengl.GLES20;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
@@ -16,26 +18,55 @@ import com.serenegiant.usb.encoder.MediaVideoEncoder;
 import com.serenegiant.usb.widget.CameraViewInterface;
 import com.serenegiant.utils.FpsCounter;
 
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 public class USBCameraView implements CameraViewInterface {
 
-    private static final boolean DEBUG = true;
     private static final String TAG = "UVCCameraTextureView";
+    /**
+     * evaluated once, so disabled logging costs a constant check on the render path.
+     * enable with `adb shell setprop log.tag.UVCCameraTextureView DEBUG` before the process starts
+     */
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+    /**
+     * deadline for requests to the render thread, a stalled GL thread must not freeze the caller
+     */
+    public static final long RENDER_TIMEOUT_MS = 3000;
 
     private boolean mHasSurface;
     private RenderHandler mRenderHandler;
-    private final Object mCaptureSync = new Object();
     private float ratio = 1.0f;
 
     /**
      * for calculation of frame rate
      */
     private final FpsCounter mFpsCounter = new FpsCounter();
+    /**
+     * number of camera frames that were replaced by a newer one before they could be rendered
+     */
+    private final AtomicLong mSkippedFrames = new AtomicLong();
+    /**
+     * render timings, only recorded while enabled
+     */
+    private final RenderMetrics mMetrics = new RenderMetrics();
+    /**
+     * still captures are read back within this budget
+     */
+    private final MemoryBudget mMemoryBudget;
 
-    public USBCameraView() {}
+    public USBCameraView(final MemoryBudget memoryBudget) {
+        mMemoryBudget = memoryBudget;
+    }
 
     public void initRender(SurfaceTexture texture, int width, int height) {
         ratio = (float) width / (float) height;
-        mRenderHandler = RenderHandler.createHandler(mFpsCounter, texture, width, height);
+        mRenderHandler = RenderHandler.createHandler(mFpsCounter, mSkippedFrames, mMetrics, mMemoryBudget, texture, width, height);
         mHasSurface = true;
     }
 
@@ -70,21 +101,100 @@ public class USBCameraView implements CameraViewInterface {
 
     /**
      * capture preview image as a bitmap
-     * this method blocks current thread until bitmap is ready
-     * if you call this method at almost same time from different thread,
-     * the returned bitmap will be changed while you are processing the bitmap
-     * (because we return same instance of bitmap on each call for memory saving)
-     * if you need to call this method from multiple thread,
-     * you should change this method(copy and return)
+     * this method blocks current thread until bitmap is ready, at most for RENDER_TIMEOUT_MS,
+     * but not the render thread. each call returns a new bitmap the caller has to recycle
+     *
+     * @param width  width of the bitmap, the view size if not positive
+     * @param height height of the bitmap, the view size if not positive
+     * @return null if the capture failed or timed out
      */
     @Override
     public Bitmap captureStillImage(int width, int height) {
+        try {
+            return captureStillImageAsync(width, height).get(RENDER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException | TimeoutException e) {
+            Log.w(TAG, "captureStillImage:", e);
+        }
         return null;
     }
 
+    /**
+     * capture preview image as a bitmap without blocking the caller
+     * pixels are read back on the render thread and converted on an encoder thread
+     */
+    public SettableFuture<Bitmap> captureStillImageAsync(final int width, final int height) {
+        return capture(PixelReadback.bitmapRequest(width, height));
+    }
+
+    /**
+     * capture preview image encoded as JPEG without blocking the caller
+     */
+    public SettableFuture<byte[]> captureStillJpeg(final int width, final int height, final int quality) {
+        return capture(PixelReadback.jpegRequest(width, height, quality));
+    }
+
+    private <T> SettableFuture<T> capture(final PixelReadback.Request<T> request) {
+        if (mRenderHandler == null) {
+            request.future.setException(new IllegalStateException("initRender was not called"));
+        } else {
+            mRenderHandler.capture(request);
+        }
+        return request.future;
+    }
+
+    /**
+     * this method blocks the current thread until the render thread created the texture,
+     * at most for RENDER_TIMEOUT_MS. prefer #requestSurfaceTexture on the main thread
+     */
     @Override
     public SurfaceTexture getSurfaceTexture() {
-        return mRenderHandler != null ? mRenderHandler.getPreviewTexture() : null;
+        if (mRenderHandler == null) {
+            return null;
+        }
+        try {
+            return mRenderHandler.requestPreviewTexture().get(RENDER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException | TimeoutException e) {
+            Log.w(TAG, "getSurfaceTexture:", e);
+        }
+        return null;
+    }
+
+    /**
+     * create the SurfaceTexture the camera renders into without blocking the caller
+     *
+     * @param callback called on the main thread with the texture, or with an error
+     *                 if the render thread didn't answer within timeoutMs
+     */
+    public void requestSurfaceTexture(final long timeoutMs, final SettableFuture.Callback<SurfaceTexture> callback) {
+        final SettableFuture<SurfaceTexture> future;
+        if (mRenderHandler != null) {
+            future = mRenderHandler.requestPreviewTexture();
+        } else {
+            future = new SettableFuture<>();
+            future.setException(new IllegalStateException("initRender was not called"));
+        }
+        future.addCallback(callback, new Handler(Looper.getMainLooper()), timeoutMs);
+    }
+
+    /**
+     * resize the preview without blocking the caller
+     *
+     * @return completed once the render thread applied the new size
+     */
+    public SettableFuture<Void> resize(final int width, final int height) {
+        if (mRenderHandler == null) {
+            final SettableFuture<Void> future = new SettableFuture<>();
+            future.setException(new IllegalStateException("initRender was not called"));
+            return future;
+        }
+        if (width > 0 && height > 0) {
+            ratio = (float) width / (float) height;
+        }
+        return mRenderHandler.resize(width, height);
     }
 
     private Surface mPreviewSurface;
@@ -112,6 +222,29 @@ public class USBCameraView implements CameraViewInterface {
 
     public void resetFps() {
         mFpsCounter.reset();
+        mSkippedFrames.set(0);
+        mMetrics.reset();
+    }
+
+    /**
+     * start or stop recording render timings
+     */
+    public void setMetricsEnabled(final boolean enabled) {
+        mMetrics.setEnabled(enabled);
+    }
+
+    /**
+     * get the render timings recorded since the last reset, together with the frame rates
+     *
+     * @return
+     */
+    public Map<String, Object> getRenderMetrics() {
+        final Map<String, Object> metrics = mMetrics.snapshot();
+        metrics.put("enabled", mMetrics.isEnabled());
+        metrics.put("fps", (double) getFps());
+        metrics.put("totalFps", (double) getTotalFps());
+        metrics.put("skippedFrames", getSkippedFrames());
+        return metrics;
     }
 
     /**
@@ -139,6 +272,15 @@ public class USBCameraView implements CameraViewInterface {
         return mFpsCounter.getTotalFps();
     }
 
+    /**
+     * get number of frames skipped since the last reset because rendering fell behind
+     *
+     * @return
+     */
+    public long getSkippedFrames() {
+        return mSkippedFrames.get();
+    }
+
     @Override
     public void setAspectRatio(double v) {
 
@@ -154,8 +296,9 @@ public class USBCameraView implements CameraViewInterface {
         return ratio;
     }
 
+
     /**
-     * render camera frames on this view on a private thread
+     * render camera frames of one view on the shared render thread
      *
      * @author saki
      */
@@ -166,23 +309,47 @@ public class USBCameraView implements CameraViewInterface {
         private static final int MSG_SET_ENCODER = 2;
         private static final int MSG_CREATE_SURFACE = 3;
         private static final int MSG_RESIZE = 4;
+        private static final int MSG_CAPTURE = 5;
+        private static final int MSG_INIT = 6;
         private static final int MSG_TERMINATE = 9;
 
-        private RenderThread mThread;
+        private ViewRenderer mRenderer;
         private boolean mIsActive = true;
         private final FpsCounter mFpsCounter;
-
-        public static final RenderHandler createHandler(final FpsCounter counter,
+        private final AtomicLong mSkippedFrames;
+        /**
+         * at most one render request is queued, frames arriving meanwhile only replace
+         * the frame that request will draw, so preview latency stays bounded
+         */
+        private final AtomicBoolean mRenderPending = new AtomicBoolean();
+        private final RenderMetrics mMetrics;
+        private final MemoryBudget mMemoryBudget;
+        /**
+         * when the pending render request was queued and how many frames it covers, metrics only
+         */
+        private volatile long mRenderQueuedNanos;
+        private final AtomicInteger mFramesSinceDraw = new AtomicInteger();
+
+        public static final RenderHandler createHandler(final FpsCounter counter, final AtomicLong skippedFrames,
+                                                        final RenderMetrics metrics, final MemoryBudget memoryBudget,
                                                         final SurfaceTexture surface, final int width, final int height) {
 
-            final RenderThread thread = new RenderThread(counter, surface, width, height);
-            thread.start();
-            return thread.getHandler();
+            final RenderScheduler scheduler = RenderScheduler.acquire();
+            final RenderHandler handler = new RenderHandler(counter, skippedFrames, metrics, memoryBudget, scheduler);
+            handler.mRenderer = new ViewRenderer(scheduler, handler, surface, width, height);
+            // the window surface is created on the render thread before any other message of this view
+            handler.sendEmptyMessage(MSG_INIT);
+            return handler;
         }
 
-        private RenderHandler(final FpsCounter counter, final RenderThread thread) {
-            mThread = thread;
+        private RenderHandler(final FpsCounter counter, final AtomicLong skippedFrames,
+                              final RenderMetrics metrics, final MemoryBudget memoryBudget,
+                              final RenderScheduler scheduler) {
+            super(scheduler.getLooper());
             mFpsCounter = counter;
+            mSkippedFrames = skippedFrames;
+            mMetrics = metrics;
+            mMemoryBudget = memoryBudget;
         }
 
         public final void setVideoEncoder(final IVideoEncoder encoder) {
@@ -191,32 +358,35 @@ public class USBCameraView implements CameraViewInterface {
                 sendMessage(obtainMessage(MSG_SET_ENCODER, encoder));
         }
 
-        public final SurfaceTexture getPreviewTexture() {
-            if (DEBUG) Log.v(TAG, "getPreviewTexture:");
-            if (mIsActive) {
-                synchronized (mThread.mSync) {
-                    sendEmptyMessage(MSG_CREATE_SURFACE);
-                    try {
-                        mThread.mSync.wait();
-                    } catch (final InterruptedException e) {
-                    }
-                    return mThread.mPreviewSurface;
-                }
-            } else {
-                return null;
+        public final SettableFuture<SurfaceTexture> requestPreviewTexture() {
+            if (DEBUG) Log.v(TAG, "requestPreviewTexture:");
+            final SettableFuture<SurfaceTexture> future = new SettableFuture<>();
+            if (!mIsActive || !sendMessage(obtainMessage(MSG_CREATE_SURFACE, future))) {
+                future.setException(new IllegalStateException("render thread is not running"));
             }
+            return future;
         }
 
-        public void resize(final int width, final int height) {
+        public SettableFuture<Void> resize(final int width, final int height) {
             if (DEBUG) Log.v(TAG, "resize:");
-            if (mIsActive) {
-                synchronized (mThread.mSync) {
-                    sendMessage(obtainMessage(MSG_RESIZE, width, height));
-                    try {
-                        mThread.mSync.wait();
-                    } catch (final InterruptedException e) {
-                    }
-                }
+            final SettableFuture<Void> future = new SettableFuture<>();
+            if (!mIsActive || !sendMessage(obtainMessage(MSG_RESIZE, width, height, future))) {
+                future.setException(new IllegalStateException("render thread is not running"));
+            }
+            return future;
+        }
+
+        public void capture(final PixelReadback.Request<?> request) {
+            if (DEBUG) Log.v(TAG, "capture:");
+            if (!mIsActive || !sendMessage(obtainMessage(MSG_CAPTURE, request))) {
+                request.future.setException(new IllegalStateException("render thread is not running"));
+            }
+        }
+
+        private void requestRender() {
+            if (mRenderPending.compareAndSet(false, true)) {
+                if (mMetrics.isEnabled()) mRenderQueuedNanos = System.nanoTime();
+                sendEmptyMessage(MSG_REQUEST_RENDER);
             }
         }
 
@@ -225,6 +395,7 @@ public class USBCameraView implements CameraViewInterface {
             if (mIsActive) {
                 mIsActive = false;
                 removeMessages(MSG_REQUEST_RENDER);
+                mRenderPending.set(false);
                 removeMessages(MSG_SET_ENCODER);
                 sendEmptyMessage(MSG_TERMINATE);
             }
@@ -234,45 +405,170 @@ public class USBCameraView implements CameraViewInterface {
         public final void onFrameAvailable(final SurfaceTexture surfaceTexture) {
             if (mIsActive) {
                 mFpsCounter.count();
-                sendEmptyMessage(MSG_REQUEST_RENDER);
+                final boolean measure = mMetrics.isEnabled();
+                if (measure) mFramesSinceDraw.incrementAndGet();
+                if (mRenderPending.compareAndSet(false, true)) {
+                    if (measure) mRenderQueuedNanos = System.nanoTime();
+                    sendEmptyMessage(MSG_REQUEST_RENDER);
+                } else {
+                    // updateTexImage always latches the latest frame, the queued request will draw this one
+                    mSkippedFrames.incrementAndGet();
+                }
             }
         }
 
+        @SuppressWarnings("unchecked")
         @Override
         public final void handleMessage(final Message msg) {
-            if (mThread == null) return;
+            if (mRenderer == null) {
+                final IllegalStateException error = new IllegalStateException("render thread was terminated");
+                if (msg.obj instanceof SettableFuture) {
+                    ((SettableFuture<?>) msg.obj).setException(error);
+                } else if (msg.obj instanceof PixelReadback.Request) {
+                    ((PixelReadback.Request<?>) msg.obj).future.setException(error);
+                }
+                return;
+            }
             switch (msg.what) {
+                case MSG_INIT:
+                    mRenderer.init();
+                    break;
                 case MSG_REQUEST_RENDER:
-                    mThread.onDrawFrame();
+                    // clear before drawing so that a frame arriving during the draw is rendered next
+                    mRenderPending.set(false);
+                    if (mMetrics.isEnabled()) {
+                        final long now = System.nanoTime();
+                        final long queued = mRenderQueuedNanos;
+                        mMetrics.recordFrameStart(now, queued > 0 ? queued : now, mFramesSinceDraw.getAndSet(0));
+                    }
+                    if (mRenderer.onDrawFrame()) {
+                        // a pending capture needs another frame, e.g. to map the pixel buffer
+                        requestRender();
+                    }
                     break;
                 case MSG_SET_ENCODER:
-                    mThread.setEncoder((MediaEncoder) msg.obj);
+                    mRenderer.setEncoder((MediaEncoder) msg.obj);
                     break;
                 case MSG_CREATE_SURFACE:
-                    mThread.updatePreviewSurface();
+                    try {
+                        mRenderer.updatePreviewSurface();
+                        ((SettableFuture<SurfaceTexture>) msg.obj).set(mRenderer.mPreviewSurface);
+                    } catch (final RuntimeException e) {
+                        ((SettableFuture<SurfaceTexture>) msg.obj).setException(e);
+                    }
                     break;
                 case MSG_RESIZE:
-                    mThread.resize(msg.arg1, msg.arg2);
+                    try {
+                        mRenderer.resize(msg.arg1, msg.arg2);
+                        ((SettableFuture<Void>) msg.obj).set(null);
+                    } catch (final RuntimeException e) {
+                        ((SettableFuture<Void>) msg.obj).setException(e);
+                    }
+                    break;
+                case MSG_CAPTURE:
+                    if (mRenderer.mPreviewSurface == null) {
+                        ((PixelReadback.Request<?>) msg.obj).future.setException(
+                                new IllegalStateException("preview surface was not created"));
+                    } else {
+                        mRenderer.mReadback.addRequest((PixelReadback.Request<?>) msg.obj);
+                        // draw even if the camera doesn't deliver a new frame
+                        requestRender();
+                    }
                     break;
                 case MSG_TERMINATE:
-                    Looper.myLooper().quit();
-                    mThread = null;
+                    mRenderer.release();
+                    mRenderer = null;
                     break;
                 default:
                     super.handleMessage(msg);
             }
         }
 
-        private static final class RenderThread extends Thread {
-            private final Object mSync = new Object();
-            private final SurfaceTexture mSurface;
-            private RenderHandler mHandler;
+        /**
+         * one thread and one EGLContext shared by every USB camera view, each view only adds
+         * a window surface and a texture, so several cameras don't contend for the GPU driver
+         * with a context each. messages of all views are handled in order on this thread
+         */
+        private static final class RenderScheduler extends HandlerThread {
+            private static RenderScheduler sInstance;
+            private static int sRefCount;
+
             private EGLBase mEgl;
+            /**
+             * shared by all views, created once the first window surface is current
+             */
+            private GLDrawer2D mDrawer;
+
+            private RenderScheduler() {
+                super("RenderThread");
+            }
+
+            public static synchronized RenderScheduler acquire() {
+                if (sInstance == null) {
+                    sInstance = new RenderScheduler();
+                    sInstance.start();
+                }
+                sRefCount++;
+                return sInstance;
+            }
+
+            /**
+             * called on the render thread by a view that is releasing its resources while its
+             * surface is still current, the last view tears down the shared state and the thread
+             */
+            public void release() {
+                synchronized (RenderScheduler.class) {
+                    if (--sRefCount > 0) {
+                        return;
+                    }
+                    sInstance = null;
+                }
+                if (mDrawer != null) {
+                    mDrawer.release();
+                    mDrawer = null;
+                }
+                quit();
+            }
+
+            public GLDrawer2D getDrawer() {
+                if (mDrawer == null) {
+                    mDrawer = new GLDrawer2D(true);
+                }
+                return mDrawer;
+            }
+
+            @Override
+            protected void onLooperPrepared() {
+                Log.d(TAG, getName() + " started");
+                // create EGLContext shared by all views
+                mEgl = EGLBase.createFrom(null, false, false);
+            }
+
+            @Override
+            public final void run() {
+                super.run();
+
+                Log.d(TAG, getName() + " finishing");
+                if (mEgl != null) {
+                    mEgl.release();
+                    mEgl = null;
+                }
+            }
+        }
+
+        /**
+         * GL state of one view, only accessed on the render thread
+         */
+        private static final class ViewRenderer {
+            private final RenderScheduler mScheduler;
+            private final RenderHandler mHandler;
+            private final SurfaceTexture mSurface;
             /**
              * IEglSurface instance related to this TextureView
              */
             private EGLBase.IEglSurface mEglSurface;
             private GLDrawer2D mDrawer;
+            private PixelReadback mReadback;
             private int mTexId = -1;
             /**
              * SurfaceTexture instance to receive video images
@@ -281,103 +577,81 @@ public class USBCameraView implements CameraViewInterface {
             private final float[] mStMatrix = new float[16];
             private MediaEncoder mEncoder;
             private int mViewWidth, mViewHeight;
-            private final FpsCounter mFpsCounter;
 
             /**
              * constructor
              *
              * @param surface: drawing surface came from TexureView
              */
-            public RenderThread(final FpsCounter fpsCounter, final SurfaceTexture surface, final int width, final int height) {
-                mFpsCounter = fpsCounter;
+            public ViewRenderer(final RenderScheduler scheduler, final RenderHandler handler, final SurfaceTexture surface, final int width, final int height) {
+                mScheduler = scheduler;
+                mHandler = handler;
                 mSurface = surface;
                 mViewWidth = width;
                 mViewHeight = height;
-                setName("RenderThread");
-            }
-
-            public final RenderHandler getHandler() {
-                if (DEBUG) Log.v(TAG, "RenderThread#getHandler:");
-                synchronized (mSync) {
-                    // create rendering thread
-                    if (mHandler == null)
-                        try {
-                            mSync.wait();
-                        } catch (final InterruptedException e) {
-                        }
-                }
-                return mHandler;
             }
 
+            /**
+             * only the buffer sizes change, the texture, the SurfaceTexture the camera renders into
+             * and the texture id handed to the encoder are kept, so no frame is lost
+             */
             public void resize(final int width, final int height) {
                 if (((width > 0) && (width != mViewWidth)) || ((height > 0) && (height != mViewHeight))) {
-                    mViewWidth = width;
-                    mViewHeight = height;
-                    updatePreviewSurface();
-                } else {
-                    synchronized (mSync) {
-                        mSync.notifyAll();
+                    if (width > 0) mViewWidth = width;
+                    if (height > 0) mViewHeight = height;
+                    // the window surface follows the size of the buffers its consumer allocates
+                    mSurface.setDefaultBufferSize(mViewWidth, mViewHeight);
+                    if (mPreviewSurface != null) {
+                        mPreviewSurface.setDefaultBufferSize(mViewWidth, mViewHeight);
                     }
                 }
             }
 
             public final void updatePreviewSurface() {
-                if (DEBUG) Log.i(TAG, "RenderThread#updatePreviewSurface:");
-                synchronized (mSync) {
-                    if (mPreviewSurface != null) {
-                        if (DEBUG) Log.d(TAG, "updatePreviewSurface:release mPreviewSurface");
-                        mPreviewSurface.setOnFrameAvailableListener(null);
-                        mPreviewSurface.release();
-                        mPreviewSurface = null;
-                    }
-                    mEglSurface.makeCurrent();
-                    if (mTexId >= 0) {
-                        mDrawer.deleteTex(mTexId);
-                    }
-                    // create texture and SurfaceTexture for input from camera
-                    mTexId = mDrawer.initTex();
-                    if (DEBUG) Log.v(TAG, "updatePreviewSurface:tex_id=" + mTexId);
-                    mPreviewSurface = new SurfaceTexture(mTexId);
-                    mPreviewSurface.setDefaultBufferSize(mViewWidth, mViewHeight);
-                    mPreviewSurface.setOnFrameAvailableListener(mHandler);
-                    // notify to caller thread that previewSurface is ready
-                    mSync.notifyAll();
+                if (DEBUG) Log.i(TAG, "ViewRenderer#updatePreviewSurface:");
+                if (mPreviewSurface != null) {
+                    if (DEBUG) Log.d(TAG, "updatePreviewSurface:release mPreviewSurface");
+                    mPreviewSurface.setOnFrameAvailableListener(null);
+                    mPreviewSurface.release();
+                    mPreviewSurface = null;
+                }
+                mEglSurface.makeCurrent();
+                if (mTexId >= 0) {
+                    mDrawer.deleteTex(mTexId);
                 }
+                // create texture and SurfaceTexture for input from camera
+                mTexId = mDrawer.initTex();
+                if (DEBUG) Log.v(TAG, "updatePreviewSurface:tex_id=" + mTexId);
+                mPreviewSurface = new SurfaceTexture(mTexId);
+                mPreviewSurface.setDefaultBufferSize(mViewWidth, mViewHeight);
+                mPreviewSurface.setOnFrameAvailableListener(mHandler);
             }
 
             public final void setEncoder(final MediaEncoder encoder) {
-                if (DEBUG) Log.v(TAG, "RenderThread#setEncoder:encoder=" + encoder);
+                if (DEBUG) Log.v(TAG, "ViewRenderer#setEncoder:encoder=" + encoder);
                 if (encoder != null && (encoder instanceof MediaVideoEncoder)) {
                     ((MediaVideoEncoder) encoder).setEglContext(mEglSurface.getContext(), mTexId);
                 }
                 mEncoder = encoder;
             }
 
-            /*
-             * Now you can get frame data as ByteBuffer(as YUV/RGB565/RGBX/NV21 pixel format) using IFrameCallback interface
-             * with UVCCamera#setFrameCallback instead of using following code samples.
-             */
-/*			// for part1
- 			private static final int BUF_NUM = 1;
-			private static final int BUF_STRIDE = 640 * 480;
-			private static final int BUF_SIZE = BUF_STRIDE * BUF_NUM;
-			int cnt = 0;
-			int offset = 0;
-			final int pixels[] = new int[BUF_SIZE];
-			final IntBuffer buffer = IntBuffer.wrap(pixels); */
-/*			// for part2
-			private ByteBuffer buf = ByteBuffer.allocateDirect(640 * 480 * 4);
- */
-
             /**
              * draw a frame (and request to draw for video capturing if it is necessary)
+             *
+             * @return whether pending still captures need another frame
              */
-            public final void onDrawFrame() {
+            public final boolean onDrawFrame() {
+                // the context is shared, so this view's surface and viewport have to be set every time
+                final RenderMetrics metrics = mHandler.mMetrics;
+                final boolean measure = metrics.isEnabled();
                 mEglSurface.makeCurrent();
+                GLES20.glViewport(0, 0, mViewWidth, mViewHeight);
+                final long start = measure ? System.nanoTime() : 0;
                 // update texture(came from camera)
                 mPreviewSurface.updateTexImage();
                 // get texture matrix
                 mPreviewSurface.getTransformMatrix(mStMatrix);
+                final long updated = measure ? System.nanoTime() : 0;
                 // notify video encoder if it exist
                 if (mEncoder != null) {
                     // notify to capturing thread that the camera frame is available.
@@ -386,118 +660,42 @@ public class USBCameraView implements CameraViewInterface {
                     else
                         mEncoder.frameAvailableSoon();
                 }
+                final long notified = measure ? System.nanoTime() : 0;
                 // draw to preview screen
                 mDrawer.draw(mTexId, mStMatrix, 0);
+                // the back buffer is undefined after swapping, so read it back before
+                final boolean needsFrame = mReadback.onFrameDrawn(mViewWidth, mViewHeight);
+                final long drawn = measure ? System.nanoTime() : 0;
                 mEglSurface.swap();
-/*				// sample code to read pixels into Buffer and save as a Bitmap (part1)
-				buffer.position(offset);
-				GLES20.glReadPixels(0, 0, 640, 480, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buffer);
-				if (++cnt == 100) { // save as a Bitmap, only once on this sample code
-					// if you save every frame as a Bitmap, app will crash by Out of Memory exception...
-					Log.i(TAG, "Capture image using glReadPixels:offset=" + offset);
-					final Bitmap bitmap = createBitmap(pixels,offset,  640, 480);
-					final File outputFile = MediaMuxerWrapper.getCaptureFile(Environment.DIRECTORY_DCIM, ".png");
-					try {
-						final BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(outputFile));
-						try {
-							try {
-								bitmap.compress(CompressFormat.PNG, 100, os);
-								os.flush();
-								bitmap.recycle();
-							} catch (IOException e) {
-							}
-						} finally {
-							os.close();
-						}
-					} catch (FileNotFoundException e) {
-					} catch (IOException e) {
-					}
-				}
-				offset = (offset + BUF_STRIDE) % BUF_SIZE;
-*/
-/*				// sample code to read pixels into Buffer and save as a Bitmap (part2)
-		        buf.order(ByteOrder.LITTLE_ENDIAN);	// it is enough to call this only once.
-		        GLES20.glReadPixels(0, 0, 640, 480, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buf);
-		        buf.rewind();
-				if (++cnt == 100) {	// save as a Bitmap, only once on this sample code
-					// if you save every frame as a Bitmap, app will crash by Out of Memory exception...
-					final File outputFile = MediaMuxerWrapper.getCaptureFile(Environment.DIRECTORY_DCIM, ".png");
-			        BufferedOutputStream os = null;
-					try {
-				        try {
-				            os = new BufferedOutputStream(new FileOutputStream(outputFile));
-				            Bitmap bmp = Bitmap.createBitmap(640, 480, Bitmap.Config.ARGB_8888);
-				            bmp.copyPixelsFromBuffer(buf);
-				            bmp.compress(Bitmap.CompressFormat.PNG, 90, os);
-				            bmp.recycle();
-				        } finally {
-				            if (os != null) os.close();
-				        }
-					} catch (FileNotFoundException e) {
-					} catch (IOException e) {
-					}
-				}
-*/
-            }
-
-/*			// sample code to read pixels into IntBuffer and save as a Bitmap (part1)
-			private static Bitmap createBitmap(final int[] pixels, final int offset, final int width, final int height) {
-				final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
-				paint.setColorFilter(new ColorMatrixColorFilter(new ColorMatrix(new float[] {
-						0, 0, 1, 0, 0,
-						0, 1, 0, 0, 0,
-						1, 0, 0, 0, 0,
-						0, 0, 0, 1, 0
-					})));
-
-				final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-				final Canvas canvas = new Canvas(bitmap);
-
-				final Matrix matrix = new Matrix();
-				matrix.postScale(1.0f, -1.0f);
-				matrix.postTranslate(0, height);
-				canvas.concat(matrix);
-
-				canvas.drawBitmap(pixels, offset, width, 0, 0, width, height, false, paint);
-
-				return bitmap;
-			} */
-
-            @Override
-            public final void run() {
-                Log.d(TAG, getName() + " started");
-                init();
-                Looper.prepare();
-                synchronized (mSync) {
-                    mHandler = new RenderHandler(mFpsCounter, this);
-                    mSync.notify();
-                }
-
-                Looper.loop();
-
-                Log.d(TAG, getName() + " finishing");
-                release();
-                synchronized (mSync) {
-                    mHandler = null;
-                    mSync.notify();
+                if (measure) {
+                    final long swapped = System.nanoTime();
+                    metrics.record(metrics.updateTexImageUs, start, updated);
+                    if (mEncoder != null) {
+                        metrics.record(metrics.encoderNotifyUs, updated, notified);
+                    }
+                    metrics.record(metrics.drawUs, notified, drawn);
+                    metrics.record(metrics.swapUs, drawn, swapped);
                 }
+                return needsFrame;
             }
 
-            private final void init() {
-                if (DEBUG) Log.v(TAG, "RenderThread#init:");
-                // create EGLContext for this thread
-                mEgl = EGLBase.createFrom(null, false, false);
-                mEglSurface = mEgl.createFromSurface(mSurface);
+            private void init() {
+                if (DEBUG) Log.v(TAG, "ViewRenderer#init:");
+                mEglSurface = mScheduler.mEgl.createFromSurface(mSurface);
                 mEglSurface.makeCurrent();
                 // create drawing object
-                mDrawer = new GLDrawer2D(true);
+                mDrawer = mScheduler.getDrawer();
+                mReadback = new PixelReadback(mHandler.mMemoryBudget);
             }
 
-            private final void release() {
-                if (DEBUG) Log.v(TAG, "RenderThread#release:");
-                if (mDrawer != null) {
-                    mDrawer.release();
-                    mDrawer = null;
+            private void release() {
+                if (DEBUG) Log.v(TAG, "ViewRenderer#release:");
+                if (mEglSurface != null) {
+                    mEglSurface.makeCurrent();
+                }
+                if (mReadback != null) {
+                    mReadback.release();
+                    mReadback = null;
                 }
                 if (mPreviewSurface != null) {
                     mPreviewSurface.release();
@@ -507,14 +705,12 @@ public class USBCameraView implements CameraViewInterface {
                     GLHelper.deleteTex(mTexId);
                     mTexId = -1;
                 }
+                mDrawer = null;
+                mScheduler.release();
                 if (mEglSurface != null) {
                     mEglSurface.release();
                     mEglSurface = null;
                 }
-                if (mEgl != null) {
-                    mEgl.release();
-                    mEgl = null;
-                }
             }
         }
     }
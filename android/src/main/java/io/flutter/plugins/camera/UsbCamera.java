@@ -0,0 +1,512 @@
+package io.flutter.plugins.camera;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.USBMonitor;
+import com.serenegiant.usb.UVCCamera;
+import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.MethodChannel.Result;
+import io.flutter.plugins.camera.Camera.ResolutionPreset;
+import io.flutter.view.TextureRegistry.SurfaceTextureEntry;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A UVC camera attached over USB, previewed into the Flutter texture through {@link USBCameraView}.
+ *
+ * <p>USB cameras are listed by {@code availableCameras} with a name starting with {@link
+ * #NAME_PREFIX}. They support previews, image streams and pictures, but no video recording.
+ */
+final class UsbCamera {
+  static final String NAME_PREFIX = "usb:";
+
+  // A frame in flight on the platform thread, one being filled and one spare.
+  private static final int STREAM_FRAME_COUNT = 3;
+
+  private final Activity activity;
+  private final SurfaceTextureEntry flutterTexture;
+  private final DartMessenger dartMessenger;
+  private final MemoryBudget memoryBudget;
+  private final String cameraName;
+  private final String deviceName;
+  private final ResolutionPreset resolutionPreset;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final USBCameraView previewView;
+
+  @Nullable private USBMonitor usbMonitor;
+  // Set together on the main thread once the device is open.
+  @Nullable private UVCCamera uvcCamera;
+  @Nullable private Size previewSize;
+  @Nullable private Result openResult;
+  @Nullable private FrameBufferPool streamFramePool;
+  // What the stream frame pool reserved in the memory budget.
+  private long streamFramePoolBytes;
+  @Nullable private EventChannel.EventSink imageStreamSink;
+  private boolean previewPaused;
+  private boolean previewAutoPaused;
+
+  UsbCamera(
+      Activity activity,
+      SurfaceTextureEntry flutterTexture,
+      DartMessenger dartMessenger,
+      MemoryBudget memoryBudget,
+      String cameraName,
+      String resolutionPreset) {
+    this.activity = activity;
+    this.flutterTexture = flutterTexture;
+    this.dartMessenger = dartMessenger;
+    this.memoryBudget = memoryBudget;
+    this.previewView = new USBCameraView(memoryBudget);
+    this.cameraName = cameraName;
+    this.deviceName = cameraName.substring(NAME_PREFIX.length());
+    this.resolutionPreset = ResolutionPreset.valueOf(resolutionPreset);
+  }
+
+  String getCameraName() {
+    return cameraName;
+  }
+
+  DartMessenger getDartMessenger() {
+    return dartMessenger;
+  }
+
+  static boolean isUsbCameraName(@Nullable String cameraName) {
+    return cameraName != null && cameraName.startsWith(NAME_PREFIX);
+  }
+
+  /** Lists the attached UVC devices in the format of {@code availableCameras}. */
+  static List<Map<String, Object>> getAvailableCameras(Context context) {
+    UsbManager usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+    List<Map<String, Object>> cameras = new ArrayList<>();
+    if (usbManager == null) {
+      return cameras;
+    }
+    for (UsbDevice device : usbManager.getDeviceList().values()) {
+      if (!isVideoDevice(device)) {
+        continue;
+      }
+      Map<String, Object> details = new HashMap<>();
+      details.put("name", NAME_PREFIX + device.getDeviceName());
+      details.put("sensorOrientation", 0);
+      details.put("lensFacing", "external");
+      details.put("highSpeedVideoConfigurations", new ArrayList<>());
+      details.put("fpsRanges", new ArrayList<>());
+      cameras.add(details);
+    }
+    return cameras;
+  }
+
+  private static boolean isVideoDevice(UsbDevice device) {
+    for (int i = 0; i < device.getInterfaceCount(); i++) {
+      UsbInterface usbInterface = device.getInterface(i);
+      if (usbInterface.getInterfaceClass() == UsbConstants.USB_CLASS_VIDEO) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Asks for permission to use the device, then opens it and starts the preview. */
+  void open(@NonNull final Result result) {
+    usbMonitor = new USBMonitor(activity, new DeviceConnectListener());
+    usbMonitor.register();
+    UsbDevice device = findDevice();
+    if (device == null) {
+      result.error("CameraAccess", "The USB camera " + deviceName + " isn't attached.", null);
+      close();
+      return;
+    }
+    openResult = result;
+    // The monitor answers through onConnect once permission is granted, right away if it was
+    // granted before.
+    usbMonitor.requestPermission(device);
+  }
+
+  @Nullable
+  private UsbDevice findDevice() {
+    for (UsbDevice device : usbMonitor.getDeviceList()) {
+      if (device.getDeviceName().equals(deviceName)) {
+        return device;
+      }
+    }
+    return null;
+  }
+
+  private final class DeviceConnectListener implements USBMonitor.OnDeviceConnectListener {
+    @Override
+    public void onAttach(UsbDevice device) {}
+
+    @Override
+    public void onDettach(UsbDevice device) {}
+
+    // Called on the monitor's worker thread.
+    @Override
+    public void onConnect(
+        UsbDevice device, USBMonitor.UsbControlBlock ctrlBlock, boolean createNew) {
+      if (!device.getDeviceName().equals(deviceName) || uvcCamera != null) {
+        return;
+      }
+      UVCCamera camera = new UVCCamera();
+      final Size size;
+      try {
+        camera.open(ctrlBlock);
+        size = computeBestPreviewSize(camera.getSupportedSizeList(), resolutionPreset);
+        try {
+          camera.setPreviewSize(size.width, size.height, UVCCamera.FRAME_FORMAT_MJPEG);
+        } catch (IllegalArgumentException e) {
+          // Not every camera compresses every size.
+          camera.setPreviewSize(size.width, size.height, UVCCamera.FRAME_FORMAT_YUYV);
+        }
+      } catch (RuntimeException e) {
+        camera.destroy();
+        mainHandler.post(() -> failOpen(e.getMessage()));
+        return;
+      }
+      mainHandler.post(() -> startPreview(camera, size));
+    }
+
+    @Override
+    public void onDisconnect(UsbDevice device, USBMonitor.UsbControlBlock ctrlBlock) {
+      if (!device.getDeviceName().equals(deviceName)) {
+        return;
+      }
+      mainHandler.post(
+          () -> {
+            if (uvcCamera == null) {
+              return;
+            }
+            close();
+            dartMessenger.send(DartMessenger.EventType.ERROR, "The camera was disconnected.");
+          });
+    }
+
+    @Override
+    public void onCancel(UsbDevice device) {
+      if (device.getDeviceName().equals(deviceName)) {
+        mainHandler.post(() -> failOpen("Permission to use the USB camera was denied."));
+      }
+    }
+  }
+
+  private void startPreview(final UVCCamera camera, Size size) {
+    if (usbMonitor == null) {
+      // Closed while the device was being opened.
+      camera.destroy();
+      return;
+    }
+    uvcCamera = camera;
+    previewSize = size;
+    SurfaceTexture flutterSurfaceTexture = flutterTexture.surfaceTexture();
+    flutterSurfaceTexture.setDefaultBufferSize(previewSize.width, previewSize.height);
+    previewView.initRender(flutterSurfaceTexture, previewSize.width, previewSize.height);
+    previewView.requestSurfaceTexture(
+        USBCameraView.RENDER_TIMEOUT_MS,
+        new SettableFuture.Callback<SurfaceTexture>() {
+          @Override
+          public void onSuccess(SurfaceTexture previewTexture) {
+            if (uvcCamera != camera) {
+              return;
+            }
+            camera.setPreviewTexture(previewTexture);
+            if (!previewPaused) {
+              camera.startPreview();
+            }
+            Result result = openResult;
+            openResult = null;
+            if (result != null) {
+              Map<String, Object> reply = new HashMap<>();
+              reply.put("textureId", flutterTexture.id());
+              reply.put("previewWidth", previewSize.width);
+              reply.put("previewHeight", previewSize.height);
+              result.success(reply);
+            }
+          }
+
+          @Override
+          public void onFailure(Exception error) {
+            failOpen(error.getMessage());
+          }
+        });
+  }
+
+  private void failOpen(String description) {
+    Result result = openResult;
+    openResult = null;
+    if (result != null) {
+      result.error("CameraAccess", description, null);
+    }
+    close();
+  }
+
+  /** Reads the next rendered preview frame back as a JPEG. */
+  void takePicture(String filePath, @NonNull final Result result) {
+    captureJpeg(95, filePath, result);
+  }
+
+  /** Same as {@link #takePicture}, the preview is the stream here. */
+  void snapshotFromStream(int quality, String filePath, @NonNull final Result result) {
+    if (quality < 0 || quality > 100) {
+      result.error("captureFailure", "The quality has to be between 0 and 100.", null);
+      return;
+    }
+    captureJpeg(quality, filePath, result);
+  }
+
+  private void captureJpeg(int quality, String filePath, final Result result) {
+    if (uvcCamera == null) {
+      result.error("CameraAccess", "The USB camera isn't open.", null);
+      return;
+    }
+    final File file = new File(filePath);
+    if (file.exists()) {
+      result.error(
+          "fileExists", "File at path '" + filePath + "' already exists. Cannot overwrite.", null);
+      return;
+    }
+    previewView
+        .captureStillJpeg(previewSize.width, previewSize.height, quality)
+        .addCallback(
+            new SettableFuture.Callback<byte[]>() {
+              @Override
+              public void onSuccess(byte[] jpeg) {
+                try (FileOutputStream outputStream = new FileOutputStream(file)) {
+                  outputStream.write(jpeg);
+                  result.success(null);
+                } catch (IOException e) {
+                  result.error("IOError", "Failed saving image", null);
+                }
+              }
+
+              @Override
+              public void onFailure(Exception error) {
+                result.error("captureFailure", error.getMessage(), null);
+              }
+            },
+            mainHandler,
+            USBCameraView.RENDER_TIMEOUT_MS);
+  }
+
+  void startPreviewWithImageStream(EventChannel imageStreamChannel) {
+    imageStreamChannel.setStreamHandler(
+        new EventChannel.StreamHandler() {
+          @Override
+          public void onListen(Object o, EventChannel.EventSink sink) {
+            // Listening again replaces the previous stream and its reservation.
+            stopImageStream();
+            if (uvcCamera == null) {
+              sink.error("CameraAccess", "The USB camera isn't open.", null);
+              return;
+            }
+            int lumaSize = previewSize.width * previewSize.height;
+            long frameBytes = lumaSize * 3L / 2;
+            // A smaller pool drops more frames, but keeps the stream within the memory budget.
+            int frameCount = STREAM_FRAME_COUNT;
+            while (frameCount > 1 && !memoryBudget.fits(frameCount * frameBytes)) {
+              frameCount--;
+            }
+            if (!memoryBudget.tryReserve(
+                MemoryBudget.Category.STREAM_FRAMES, frameCount * frameBytes)) {
+              sink.error("CameraAccess", "The image stream exceeds the memory budget.", null);
+              return;
+            }
+            imageStreamSink = sink;
+            streamFramePool = new FrameBufferPool(frameCount, lumaSize, lumaSize / 2);
+            streamFramePoolBytes = frameCount * frameBytes;
+            uvcCamera.setFrameCallback(
+                createFrameCallback(streamFramePool, sink), UVCCamera.PIXEL_FORMAT_NV21);
+          }
+
+          @Override
+          public void onCancel(Object o) {
+            stopImageStream();
+          }
+        });
+  }
+
+  void stopImageStream() {
+    imageStreamSink = null;
+    streamFramePool = null;
+    memoryBudget.release(MemoryBudget.Category.STREAM_FRAMES, streamFramePoolBytes);
+    streamFramePoolBytes = 0;
+    if (uvcCamera != null) {
+      uvcCamera.setFrameCallback(null, 0);
+    }
+  }
+
+  private IFrameCallback createFrameCallback(
+      final FrameBufferPool pool, final EventChannel.EventSink sink) {
+    final int width = previewSize.width;
+    final int height = previewSize.height;
+    // Called on the camera's native thread, the frame is only valid until this returns.
+    final int frameSize = width * height * 3 / 2;
+    return (ByteBuffer frame) -> {
+      if (frame.remaining() < frameSize) {
+        return;
+      }
+      final byte[][] planes = pool.acquire();
+      if (planes == null) {
+        // The platform thread is behind, drop the frame instead of queueing it.
+        return;
+      }
+      frame.get(planes[0]);
+      frame.get(planes[1]);
+      mainHandler.post(
+          () -> {
+            if (imageStreamSink == sink) {
+              sink.success(createImageBuffer(planes, width, height));
+            }
+            // The codec has copied the planes into the message by now.
+            pool.release(planes);
+          });
+    };
+  }
+
+  private static Map<String, Object> createImageBuffer(byte[][] planes, int width, int height) {
+    // NV21: a full resolution luma plane followed by interleaved V and U at half resolution.
+    List<Map<String, Object>> planeBuffers = new ArrayList<>();
+    for (int plane = 0; plane < planes.length; plane++) {
+      Map<String, Object> planeBuffer = new HashMap<>();
+      planeBuffer.put("bytesPerRow", width);
+      planeBuffer.put("bytesPerPixel", plane == 0 ? 1 : 2);
+      planeBuffer.put("bytes", planes[plane]);
+      planeBuffers.add(planeBuffer);
+    }
+
+    Map<String, Object> imageBuffer = new HashMap<>();
+    imageBuffer.put("width", width);
+    imageBuffer.put("height", height);
+    imageBuffer.put("format", ImageFormat.NV21);
+    imageBuffer.put("planes", planeBuffers);
+    return imageBuffer;
+  }
+
+  /** Stops the camera's preview but keeps the device open, so that resuming is quick. */
+  void pausePreview() {
+    previewAutoPaused = false;
+    if (previewPaused) {
+      return;
+    }
+    previewPaused = true;
+    if (uvcCamera != null) {
+      uvcCamera.stopPreview();
+    }
+  }
+
+  void resumePreview() {
+    previewAutoPaused = false;
+    if (!previewPaused) {
+      return;
+    }
+    previewPaused = false;
+    if (uvcCamera != null) {
+      uvcCamera.startPreview();
+    }
+  }
+
+  void autoPausePreview() {
+    if (!previewPaused) {
+      pausePreview();
+      previewAutoPaused = true;
+    }
+  }
+
+  void autoResumePreview() {
+    if (previewAutoPaused) {
+      resumePreview();
+    }
+  }
+
+  void setRenderMetricsEnabled(boolean enabled) {
+    previewView.setMetricsEnabled(enabled);
+  }
+
+  Map<String, Object> getRenderMetrics() {
+    Map<String, Object> metrics = previewView.getRenderMetrics();
+    FrameBufferPool pool = streamFramePool;
+    metrics.put("droppedStreamFrames", pool != null ? pool.getDroppedFrames() : 0L);
+    return metrics;
+  }
+
+  void close() {
+    stopImageStream();
+    if (uvcCamera != null) {
+      uvcCamera.stopPreview();
+      uvcCamera.destroy();
+      uvcCamera = null;
+      previewSize = null;
+      dartMessenger.sendCameraClosingEvent();
+    }
+    previewView.destroy();
+    if (usbMonitor != null) {
+      usbMonitor.unregister();
+      usbMonitor.destroy();
+      usbMonitor = null;
+    }
+  }
+
+  void dispose() {
+    close();
+    flutterTexture.release();
+  }
+
+  /**
+   * Picks the largest supported size that fits the preset, or the smallest size if none does. UVC
+   * devices don't have camcorder profiles, so the presets map to their nominal sizes.
+   */
+  static Size computeBestPreviewSize(List<Size> supportedSizes, ResolutionPreset preset) {
+    int[] maxSize;
+    switch (preset) {
+      case low:
+        maxSize = new int[] {320, 240};
+        break;
+      case medium:
+        maxSize = new int[] {640, 480};
+        break;
+      case high:
+        maxSize = new int[] {1280, 720};
+        break;
+      case veryHigh:
+        maxSize = new int[] {1920, 1080};
+        break;
+      case ultraHigh:
+        maxSize = new int[] {3840, 2160};
+        break;
+      default:
+        maxSize = new int[] {Integer.MAX_VALUE, Integer.MAX_VALUE};
+    }
+    Size best = null;
+    Size smallest = null;
+    for (Size size : supportedSizes) {
+      long area = (long) size.width * size.height;
+      if (smallest == null || area < (long) smallest.width * smallest.height) {
+        smallest = size;
+      }
+      boolean fits = size.width <= maxSize[0] && size.height <= maxSize[1];
+      if (fits && (best == null || area > (long) best.width * best.height)) {
+        best = size;
+      }
+    }
+    if (smallest == null) {
+      throw new IllegalArgumentException("The USB camera doesn't report any preview size.");
+    }
+    return best != null ? best : smallest;
+  }
+}
@@ -0,0 +1,195 @@
+package io.flutter.plugins.camera;
+
+import android.media.CamcorderProfile;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.util.Size;
+import androidx.annotation.Nullable;
+import io.flutter.plugin.common.MethodCall;
+
+/** Options passed to {@code startVideoRecording} that select and configure the recording engine. */
+final class VideoRecordingOptions {
+  // Mirrors the values accepted by the "recordingEngine" argument.
+  enum Engine {
+    mediaRecorder,
+    mediaCodec,
+  }
+
+  final Engine engine;
+  @Nullable final String videoCodec;
+  @Nullable final Integer videoBitRate;
+  @Nullable final String bitRateMode;
+  @Nullable final Integer iFrameInterval;
+  @Nullable final Boolean enableAudio;
+  // Segmented recording rotates the output file once either limit is reached.
+  @Nullable final Integer segmentDurationSeconds;
+  @Nullable final Long segmentSizeBytes;
+  // Pre-event recording keeps this much history in memory until it is committed to a file.
+  @Nullable final Integer preEventDurationSeconds;
+  @Nullable final Integer preEventBufferBytes;
+  // High-speed recording uses a constrained high-speed capture session at this fixed frame rate.
+  @Nullable final Integer highSpeedFrameRate;
+  @Nullable final Size highSpeedVideoSize;
+
+  VideoRecordingOptions(
+      Engine engine,
+      @Nullable String videoCodec,
+      @Nullable Integer videoBitRate,
+      @Nullable String bitRateMode,
+      @Nullable Integer iFrameInterval,
+      @Nullable Boolean enableAudio,
+      @Nullable Integer segmentDurationSeconds,
+      @Nullable Long segmentSizeBytes,
+      @Nullable Integer preEventDurationSeconds,
+      @Nullable Integer preEventBufferBytes,
+      @Nullable Integer highSpeedFrameRate,
+      @Nullable Size highSpeedVideoSize) {
+    this.engine = engine;
+    this.videoCodec = videoCodec;
+    this.videoBitRate = videoBitRate;
+    this.bitRateMode = bitRateMode;
+    this.iFrameInterval = iFrameInterval;
+    this.enableAudio = enableAudio;
+    this.segmentDurationSeconds = segmentDurationSeconds;
+    this.segmentSizeBytes = segmentSizeBytes;
+    this.preEventDurationSeconds = preEventDurationSeconds;
+    this.preEventBufferBytes = preEventBufferBytes;
+    this.highSpeedFrameRate = highSpeedFrameRate;
+    this.highSpeedVideoSize = highSpeedVideoSize;
+  }
+
+  static VideoRecordingOptions fromMethodCall(MethodCall call) {
+    return fromMethodCall(call, null);
+  }
+
+  /** Pre-event recording is built on the muxer, so it always uses the MediaCodec engine. */
+  static VideoRecordingOptions fromPreEventMethodCall(MethodCall call) {
+    return fromMethodCall(call, Engine.mediaCodec);
+  }
+
+  private static VideoRecordingOptions fromMethodCall(
+      MethodCall call, @Nullable Engine requiredEngine) {
+    String engine = call.argument("recordingEngine");
+    Integer segmentDurationSeconds = call.argument("segmentDurationSeconds");
+    // The codec can hand us either an Integer or a Long depending on the magnitude.
+    Number segmentSizeBytes = call.argument("segmentSizeBytes");
+    Integer preEventDurationSeconds = call.argument("preEventDurationSeconds");
+    Integer highSpeedWidth = call.argument("highSpeedWidth");
+    Integer highSpeedHeight = call.argument("highSpeedHeight");
+    boolean muxed =
+        segmentDurationSeconds != null
+            || segmentSizeBytes != null
+            || preEventDurationSeconds != null;
+    Engine selectedEngine = requiredEngine;
+    if (selectedEngine == null) {
+      selectedEngine =
+          engine != null
+              ? Engine.valueOf(engine)
+              // Segmented and pre-event recording are built on the muxer, so they imply the
+              // MediaCodec engine.
+              : muxed ? Engine.mediaCodec : Engine.mediaRecorder;
+    }
+    return new VideoRecordingOptions(
+        selectedEngine,
+        call.argument("videoCodec"),
+        call.argument("videoBitRate"),
+        call.argument("bitRateMode"),
+        call.argument("iFrameInterval"),
+        call.argument("enableAudio"),
+        segmentDurationSeconds,
+        segmentSizeBytes != null ? segmentSizeBytes.longValue() : null,
+        preEventDurationSeconds,
+        call.argument("preEventBufferBytes"),
+        call.argument("highSpeedFrameRate"),
+        highSpeedWidth != null && highSpeedHeight != null
+            ? new Size(highSpeedWidth, highSpeedHeight)
+            : null);
+  }
+
+  /** Returns whether {@code name} is a value of the "recordingEngine" argument. */
+  static boolean isEngine(String name) {
+    for (Engine engine : Engine.values()) {
+      if (engine.name().equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  boolean isHighSpeed() {
+    return highSpeedFrameRate != null;
+  }
+
+  boolean isSegmented() {
+    return segmentDurationSeconds != null || segmentSizeBytes != null;
+  }
+
+  long getSegmentDurationUs() {
+    return segmentDurationSeconds != null ? segmentDurationSeconds * 1000000L : 0;
+  }
+
+  long getSegmentSizeBytes() {
+    return segmentSizeBytes != null ? segmentSizeBytes : 0;
+  }
+
+  long getPreEventDurationUs() {
+    return preEventDurationSeconds != null ? preEventDurationSeconds * 1000000L : 0;
+  }
+
+  int getPreEventBufferBytes(CamcorderProfile profile, boolean recordAudio) {
+    if (preEventBufferBytes != null) {
+      return preEventBufferBytes;
+    }
+    // Room for the requested duration plus the group of pictures that is being filled, with some
+    // headroom for bit rate spikes.
+    long bitRate = getVideoBitRate(profile) + (recordAudio ? profile.audioBitRate : 0);
+    long seconds = getPreEventDurationUs() / 1000000L + getIFrameInterval();
+    return (int) Math.min(Integer.MAX_VALUE, bitRate / 8 * seconds * 5 / 4);
+  }
+
+  boolean recordsAudio(boolean cameraAudioEnabled) {
+    // Audio can only be turned off per recording. Turning it on requires the microphone
+    // permission, which is only requested when the camera was initialized with audio.
+    // High-speed video is meant to be played back slowed down, so it is recorded without audio.
+    return cameraAudioEnabled && (enableAudio == null || enableAudio) && !isHighSpeed();
+  }
+
+  String getVideoMimeType() {
+    if (videoCodec == null) {
+      return MediaFormat.MIMETYPE_VIDEO_AVC;
+    }
+    switch (videoCodec) {
+      case "h264":
+        return MediaFormat.MIMETYPE_VIDEO_AVC;
+      case "hevc":
+        return MediaFormat.MIMETYPE_VIDEO_HEVC;
+      default:
+        throw new IllegalArgumentException("Unsupported video codec: " + videoCodec);
+    }
+  }
+
+  int getVideoBitRate(CamcorderProfile profile) {
+    return videoBitRate != null ? videoBitRate : profile.videoBitRate;
+  }
+
+  int getIFrameInterval() {
+    return iFrameInterval != null ? iFrameInterval : 1;
+  }
+
+  @Nullable
+  Integer getBitRateMode() {
+    if (bitRateMode == null) {
+      return null;
+    }
+    switch (bitRateMode) {
+      case "cbr":
+        return MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR;
+      case "vbr":
+        return MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR;
+      case "cq":
+        return MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ;
+      default:
+        throw new IllegalArgumentException("Unsupported bit rate mode: " + bitRateMode);
+    }
+  }
+}
@@ -44,13 +44,48 @@ public class DartMessengerTest {
     }
   }
 
+  /** A {@link DartMessenger.MainThread} with a manual clock that runs posts when told to. */
+  private static class FakeMainThread implements DartMessenger.MainThread {
+    private final List<Runnable> posted = new ArrayList<>();
+    private long uptimeMillis;
+
+    @Override
+    public boolean isCurrent() {
+      return true;
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delayMillis) {
+      posted.add(runnable);
+    }
+
+    @Override
+    public long uptimeMillis() {
+      return uptimeMillis;
+    }
+
+    void advance(long millis) {
+      uptimeMillis += millis;
+    }
+
+    void runPosted() {
+      List<Runnable> runnables = new ArrayList<>(posted);
+      posted.clear();
+      for (Runnable runnable : runnables) {
+        runnable.run();
+      }
+    }
+  }
+
   private DartMessenger dartMessenger;
   private FakeBinaryMessenger fakeBinaryMessenger;
+  private FakeMainThread fakeMainThread;
 
   @Before
   public void setUp() {
     fakeBinaryMessenger = new FakeBinaryMessenger();
-    dartMessenger = new DartMessenger(fakeBinaryMessenger, 0);
+    fakeMainThread = new FakeMainThread();
+    dartMessenger = new DartMessenger(fakeBinaryMessenger, 0, fakeMainThread);
   }
 
   @Test
@@ -93,6 +128,143 @@ public class DartMessengerTest {
     assertNull(event.get("errorDescription"));
   }
 
+  @Test
+  public void sendVideoSegmentFinishedEvent() {
+    initializeEventSink();
+
+    dartMessenger.sendVideoSegmentFinishedEvent("/tmp/video_001.mp4");
+
+    List<ByteBuffer> sentMessages = fakeBinaryMessenger.getMessages();
+    assertEquals(1, sentMessages.size());
+    Map<String, String> event = decodeSentMessage(sentMessages.get(0));
+    assertEquals(
+        DartMessenger.EventType.VIDEO_SEGMENT_FINISHED.toString().toLowerCase(),
+        event.get("eventType"));
+    assertEquals("/tmp/video_001.mp4", event.get("filePath"));
+  }
+
+  @Test
+  public void eventTypeValues_matchLowerCaseNames() {
+    for (DartMessenger.EventType eventType : DartMessenger.EventType.values()) {
+      assertEquals(eventType.toString().toLowerCase(), eventType.value);
+    }
+  }
+
+  @Test
+  public void setBatchInterval_sendsEventsAsOneBatchInOrder() {
+    initializeEventSink();
+    dartMessenger.setBatchInterval(16);
+
+    dartMessenger.sendVideoSegmentFinishedEvent("/tmp/video_001.mp4");
+    dartMessenger.sendVideoSegmentFinishedEvent("/tmp/video_002.mp4");
+    assertEquals(0, fakeBinaryMessenger.getMessages().size());
+    fakeMainThread.runPosted();
+
+    List<ByteBuffer> sentMessages = fakeBinaryMessenger.getMessages();
+    assertEquals(1, sentMessages.size());
+    List<Map<String, String>> events = decodeSentBatch(sentMessages.get(0));
+    assertEquals(2, events.size());
+    assertEquals("/tmp/video_001.mp4", events.get(0).get("filePath"));
+    assertEquals("/tmp/video_002.mp4", events.get(1).get("filePath"));
+  }
+
+  @Test
+  public void setBatchInterval_zeroFlushesPendingEvents() {
+    initializeEventSink();
+    dartMessenger.setBatchInterval(16);
+    dartMessenger.sendVideoSegmentFinishedEvent("/tmp/batched.mp4");
+
+    dartMessenger.setBatchInterval(0);
+    dartMessenger.sendVideoSegmentFinishedEvent("/tmp/direct.mp4");
+    fakeMainThread.runPosted();
+
+    List<ByteBuffer> sentMessages = fakeBinaryMessenger.getMessages();
+    assertEquals(2, sentMessages.size());
+    assertEquals("/tmp/batched.mp4", decodeSentBatch(sentMessages.get(0)).get(0).get("filePath"));
+    assertEquals("/tmp/direct.mp4", decodeSentMessage(sentMessages.get(1)).get("filePath"));
+  }
+
+  @Test
+  public void setBatchInterval_sendsErrorsRightAwayAfterPendingEvents() {
+    initializeEventSink();
+    dartMessenger.setBatchInterval(16);
+
+    dartMessenger.sendVideoSegmentFinishedEvent("/tmp/video_001.mp4");
+    dartMessenger.send(DartMessenger.EventType.ERROR, "error description");
+
+    List<ByteBuffer> sentMessages = fakeBinaryMessenger.getMessages();
+    assertEquals(2, sentMessages.size());
+    assertEquals("/tmp/video_001.mp4", decodeSentBatch(sentMessages.get(0)).get(0).get("filePath"));
+    assertEquals(
+        "error description", decodeSentMessage(sentMessages.get(1)).get("errorDescription"));
+  }
+
+  @Test
+  public void setRateLimit_holdsEventsUntilTheIntervalEnds() {
+    initializeEventSink();
+    dartMessenger.setRateLimit(DartMessenger.EventType.VIDEO_SEGMENT_FINISHED, 100);
+
+    dartMessenger.sendVideoSegmentFinishedEvent("/tmp/video_001.mp4");
+    fakeMainThread.advance(50);
+    dartMessenger.sendVideoSegmentFinishedEvent("/tmp/video_002.mp4");
+    dartMessenger.sendVideoSegmentFinishedEvent("/tmp/video_003.mp4");
+    assertEquals(1, fakeBinaryMessenger.getMessages().size());
+    fakeMainThread.advance(50);
+    fakeMainThread.runPosted();
+
+    List<ByteBuffer> sentMessages = fakeBinaryMessenger.getMessages();
+    assertEquals(2, sentMessages.size());
+    assertEquals("/tmp/video_001.mp4", decodeSentMessage(sentMessages.get(0)).get("filePath"));
+    List<Map<String, String>> events = decodeSentBatch(sentMessages.get(1));
+    assertEquals(2, events.size());
+    assertEquals("/tmp/video_002.mp4", events.get(0).get("filePath"));
+    assertEquals("/tmp/video_003.mp4", events.get(1).get("filePath"));
+  }
+
+  @Test
+  public void setRateLimit_sendsHeldEventsAheadOfCriticalEvents() {
+    initializeEventSink();
+    dartMessenger.setRateLimit(DartMessenger.EventType.VIDEO_SEGMENT_FINISHED, 100);
+
+    dartMessenger.sendVideoSegmentFinishedEvent("/tmp/video_001.mp4");
+    fakeMainThread.advance(50);
+    dartMessenger.sendVideoSegmentFinishedEvent("/tmp/video_002.mp4");
+    dartMessenger.sendCameraClosingEvent();
+    fakeMainThread.advance(50);
+    dartMessenger.sendVideoSegmentFinishedEvent("/tmp/video_003.mp4");
+    // The interval restarted when the held event was sent.
+    fakeMainThread.runPosted();
+    assertEquals(3, fakeBinaryMessenger.getMessages().size());
+    fakeMainThread.advance(50);
+    fakeMainThread.runPosted();
+
+    List<ByteBuffer> sentMessages = fakeBinaryMessenger.getMessages();
+    assertEquals(4, sentMessages.size());
+    assertEquals("/tmp/video_001.mp4", decodeSentMessage(sentMessages.get(0)).get("filePath"));
+    assertEquals("/tmp/video_002.mp4", decodeSentMessage(sentMessages.get(1)).get("filePath"));
+    assertEquals("camera_closing", decodeSentMessage(sentMessages.get(2)).get("eventType"));
+    assertEquals("/tmp/video_003.mp4", decodeSentMessage(sentMessages.get(3)).get("filePath"));
+  }
+
+  @Test
+  public void setRateLimit_neverHoldsErrors() {
+    initializeEventSink();
+    dartMessenger.setRateLimit(DartMessenger.EventType.ERROR, 100);
+
+    dartMessenger.send(DartMessenger.EventType.ERROR, "first");
+    dartMessenger.send(DartMessenger.EventType.ERROR, "second");
+
+    assertEquals(2, fakeBinaryMessenger.getMessages().size());
+  }
+
+  private List<Map<String, String>> decodeSentBatch(ByteBuffer sentMessage) {
+    sentMessage.position(0);
+    Map<String, Object> batch =
+        (Map<String, Object>) StandardMethodCodec.INSTANCE.decodeEnvelope(sentMessage);
+    assertEquals("batch", batch.get("eventType"));
+    return (List<Map<String, String>>) batch.get("events");
+  }
+
   private Map<String, String> decodeSentMessage(ByteBuffer sentMessage) {
     sentMessage.position(0);
     return (Map<String, String>) StandardMethodCodec.INSTANCE.decodeEnvelope(sentMessage);
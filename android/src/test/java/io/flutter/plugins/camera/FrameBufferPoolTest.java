@@ -0,0 +1,45 @@
+package io.flutter.plugins.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class FrameBufferPoolTest {
+  @Test
+  public void acquire_allocatesPlanesOfTheGivenSizes() {
+    FrameBufferPool pool = new FrameBufferPool(1, 16, 8);
+
+    byte[][] frame = pool.acquire();
+
+    assertNotNull(frame);
+    assertEquals(2, frame.length);
+    assertEquals(16, frame[0].length);
+    assertEquals(8, frame[1].length);
+  }
+
+  @Test
+  public void acquire_dropsFramesWhenEmpty() {
+    FrameBufferPool pool = new FrameBufferPool(2, 4);
+
+    pool.acquire();
+    pool.acquire();
+
+    assertNull(pool.acquire());
+    assertNull(pool.acquire());
+    assertEquals(2, pool.getDroppedFrames());
+  }
+
+  @Test
+  public void release_makesTheFrameReusable() {
+    FrameBufferPool pool = new FrameBufferPool(1, 4);
+
+    byte[][] frame = pool.acquire();
+    pool.release(frame);
+
+    assertSame(frame, pool.acquire());
+    assertEquals(0, pool.getDroppedFrames());
+  }
+}
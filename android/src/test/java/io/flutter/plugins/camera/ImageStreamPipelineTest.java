@@ -0,0 +1,155 @@
+package io.flutter.plugins.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.flutter.plugin.common.EventChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImageStreamPipelineTest {
+  /** An {@link EventChannel.EventSink} that keeps its frames and can be made slow. */
+  private static class FakeEventSink implements EventChannel.EventSink {
+    private final List<Map<String, Object>> frames = new ArrayList<>();
+    private final long delayMillis;
+
+    FakeEventSink(long delayMillis) {
+      this.delayMillis = delayMillis;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void success(Object event) {
+      frames.add((Map<String, Object>) event);
+      if (delayMillis > 0) {
+        try {
+          Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    @Override
+    public void error(String errorCode, String errorMessage, Object errorDetails) {}
+
+    @Override
+    public void endOfStream() {}
+  }
+
+  /** A single "main" thread that records how many frames waited for it at most. */
+  private static class FakeMainExecutor implements Executor {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicInteger queued = new AtomicInteger();
+    private volatile int peakQueued;
+
+    @Override
+    public void execute(Runnable runnable) {
+      peakQueued = Math.max(peakQueued, queued.incrementAndGet());
+      executor.execute(
+          () -> {
+            queued.decrementAndGet();
+            runnable.run();
+          });
+    }
+
+    void drain() throws InterruptedException {
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+  }
+
+  private final MemoryBudget memoryBudget = new MemoryBudget();
+  private FakeMainExecutor mainExecutor;
+
+  @Before
+  public void setUp() {
+    mainExecutor = new FakeMainExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    mainExecutor.executor.shutdownNow();
+  }
+
+  @Test
+  public void fastConsumer_keepsUpWithTheCamera() throws InterruptedException {
+    ImageStreamPipeline pipeline = new ImageStreamPipeline(mainExecutor, memoryBudget, 2);
+    FakeEventSink sink = new FakeEventSink(0);
+    pipeline.setSink(sink);
+    SyntheticFrameSource source = new SyntheticFrameSource(640, 480, 60);
+
+    long startNanos = System.nanoTime();
+    source.run(pipeline, 60);
+    mainExecutor.drain();
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+    assertEquals(60, pipeline.getDeliveredFrames() + pipeline.getDroppedFrames());
+    assertTrue(pipeline.getDroppedFrames() <= 3);
+    assertTrue(pipeline.getDeliveredFrames() / seconds > 30);
+    Map<String, Object> frame = sink.frames.get(sink.frames.size() - 1);
+    assertEquals(640, frame.get("width"));
+    assertEquals(480, frame.get("height"));
+    int frameBytes = 0;
+    for (Object plane : (List<?>) frame.get("planes")) {
+      frameBytes += ((byte[]) ((Map<?, ?>) plane).get("bytes")).length;
+    }
+    assertEquals(source.getFrameBytes(), frameBytes);
+  }
+
+  @Test
+  public void slowConsumer_dropsFramesAndBoundsMemory() throws InterruptedException {
+    ImageStreamPipeline pipeline = new ImageStreamPipeline(mainExecutor, memoryBudget, 2);
+    pipeline.setSink(new FakeEventSink(5));
+    SyntheticFrameSource source = new SyntheticFrameSource(1920, 1080, 0);
+
+    source.run(pipeline, 200);
+    mainExecutor.drain();
+
+    assertEquals(200, pipeline.getDeliveredFrames() + pipeline.getDroppedFrames());
+    assertTrue(pipeline.getDroppedFrames() > 0);
+    // Copied frames only live while queued, so this bounds the memory the stream holds.
+    assertTrue(mainExecutor.peakQueued <= 2);
+    assertEquals(0, memoryBudget.getUsedBytes());
+  }
+
+  @Test
+  public void offer_dropsFramesBeyondTheMemoryBudget() throws InterruptedException {
+    ImageStreamPipeline pipeline = new ImageStreamPipeline(mainExecutor, memoryBudget, 2);
+    pipeline.setSink(new FakeEventSink(5));
+    SyntheticFrameSource source = new SyntheticFrameSource(640, 480, 0);
+    // Room for one copied frame at a time.
+    memoryBudget.setCapBytes(source.getFrameBytes() * 3 / 2);
+
+    source.run(pipeline, 50);
+    mainExecutor.drain();
+
+    assertTrue(pipeline.getDroppedFrames() > 0);
+    assertTrue(memoryBudget.getPeakBytes() <= source.getFrameBytes());
+    assertEquals(0, memoryBudget.getUsedBytes());
+  }
+
+  @Test
+  public void offer_withoutSinkDoesNotBlockLaterFrames() throws InterruptedException {
+    ImageStreamPipeline pipeline = new ImageStreamPipeline(Runnable::run, memoryBudget, 1);
+    SyntheticFrameSource source = new SyntheticFrameSource(64, 48, 0);
+
+    source.run(pipeline, 3);
+    FakeEventSink sink = new FakeEventSink(0);
+    pipeline.setSink(sink);
+    source.run(pipeline, 2);
+
+    assertEquals(2, pipeline.getDeliveredFrames());
+    assertEquals(0, pipeline.getDroppedFrames());
+    assertEquals(2, sink.frames.size());
+  }
+}
@@ -0,0 +1,62 @@
+package io.flutter.plugins.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import org.junit.Test;
+
+public class MemoryBudgetTest {
+  private final MemoryBudget memoryBudget = new MemoryBudget();
+
+  @Test
+  public void reserve_countsBytesPastTheCap() {
+    memoryBudget.setCapBytes(100);
+
+    memoryBudget.reserve(MemoryBudget.Category.STREAM_READER, 150);
+
+    assertEquals(150, memoryBudget.getUsedBytes());
+    assertFalse(memoryBudget.fits(1));
+  }
+
+  @Test
+  public void tryReserve_rejectsBytesPastTheCap() {
+    memoryBudget.setCapBytes(100);
+
+    assertTrue(memoryBudget.tryReserve(MemoryBudget.Category.STREAM_FRAMES, 60));
+    assertFalse(memoryBudget.tryReserve(MemoryBudget.Category.STREAM_FRAMES, 60));
+    memoryBudget.release(MemoryBudget.Category.STREAM_FRAMES, 60);
+    assertTrue(memoryBudget.tryReserve(MemoryBudget.Category.STREAM_FRAMES, 60));
+
+    assertEquals(60, memoryBudget.getUsedBytes());
+  }
+
+  @Test
+  public void release_keepsThePeak() {
+    memoryBudget.reserve(MemoryBudget.Category.PICTURE_READER, 40);
+    memoryBudget.reserve(MemoryBudget.Category.STREAM_READER, 30);
+    memoryBudget.release(MemoryBudget.Category.STREAM_READER, 30);
+
+    assertEquals(40, memoryBudget.getUsedBytes());
+    assertEquals(70, memoryBudget.getPeakBytes());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void toMap_reportsUsageByCategory() {
+    memoryBudget.reserve(MemoryBudget.Category.PRE_EVENT_BUFFER, 1000);
+    memoryBudget.tryReserve(MemoryBudget.Category.STREAM_FRAMES, 10);
+
+    Map<String, Object> usage = memoryBudget.toMap();
+
+    assertEquals(1010L, usage.get("usedBytes"));
+    assertEquals(1010L, usage.get("peakBytes"));
+    assertNull(usage.get("capBytes"));
+    Map<String, Object> categories = (Map<String, Object>) usage.get("categories");
+    assertEquals(1000L, categories.get("preEventBuffer"));
+    assertEquals(10L, categories.get("streamFrames"));
+    assertEquals(0L, categories.get("pictureReader"));
+  }
+}
@@ -0,0 +1,60 @@
+package io.flutter.plugins.camera;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+import org.junit.Test;
+
+public class RenderMetricsTest {
+  @Test
+  public void histogram_reportsBucketUpperBoundsAsPercentiles() {
+    RenderMetrics.Histogram histogram = new RenderMetrics.Histogram();
+    for (int i = 0; i < 90; i++) {
+      histogram.record(100);
+    }
+    for (int i = 0; i < 10; i++) {
+      histogram.record(5000);
+    }
+
+    assertEquals(127, histogram.getPercentile(50));
+    assertEquals(127, histogram.getPercentile(90));
+    assertEquals(5000, histogram.getPercentile(99));
+  }
+
+  @Test
+  public void histogram_clampsNegativeValues() {
+    RenderMetrics.Histogram histogram = new RenderMetrics.Histogram();
+
+    histogram.record(-5);
+
+    assertEquals(1, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(100));
+  }
+
+  @Test
+  public void recordFrameStart_tracksIntervalsAndJitter() {
+    RenderMetrics metrics = new RenderMetrics();
+
+    metrics.recordFrameStart(0, 0, 1);
+    metrics.recordFrameStart(33_000_000, 32_000_000, 1);
+    metrics.recordFrameStart(70_000_000, 69_000_000, 2);
+
+    assertEquals(2, metrics.frameIntervalUs.getCount());
+    assertEquals(1, metrics.frameJitterUs.getCount());
+    @SuppressWarnings("unchecked")
+    Map<String, Object> jitter = (Map<String, Object>) metrics.snapshot().get("frameJitterUs");
+    assertEquals(4000L, jitter.get("max"));
+  }
+
+  @Test
+  public void reset_clearsHistograms() {
+    RenderMetrics metrics = new RenderMetrics();
+    metrics.recordFrameStart(0, 0, 1);
+    metrics.recordFrameStart(1000, 0, 1);
+
+    metrics.reset();
+
+    assertEquals(0, metrics.frameIntervalUs.getCount());
+    assertEquals(0, metrics.queueDelayUs.getCount());
+  }
+}
@@ -0,0 +1,101 @@
+package io.flutter.plugins.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class SampleRingBufferTest {
+  private static final int VIDEO = SampleSink.TRACK_VIDEO;
+  private static final int AUDIO = SampleSink.TRACK_AUDIO;
+
+  @Test
+  public void add_dropsSamplesBeforeFirstKeyFrame() {
+    SampleRingBuffer ringBuffer = new SampleRingBuffer(1024, 1000000);
+
+    assertFalse(ringBuffer.add(VIDEO, sample(10), 0, 0, false));
+    assertFalse(ringBuffer.add(AUDIO, sample(10), 0, 0, false));
+    assertTrue(ringBuffer.add(VIDEO, sample(10), 33000, 0, true));
+
+    assertEquals(1, ringBuffer.getSampleCount());
+  }
+
+  @Test
+  public void add_evictsWholeGroupsWhenFull() {
+    SampleRingBuffer ringBuffer = new SampleRingBuffer(100, Long.MAX_VALUE);
+
+    ringBuffer.add(VIDEO, sample(30), 0, 0, true);
+    ringBuffer.add(VIDEO, sample(20), 1, 0, false);
+    ringBuffer.add(VIDEO, sample(30), 2, 0, true);
+    ringBuffer.add(VIDEO, sample(30), 3, 0, false);
+
+    List<Long> timestamps = drainTimestamps(ringBuffer);
+    assertEquals(2, timestamps.size());
+    assertEquals(2L, (long) timestamps.get(0));
+  }
+
+  @Test
+  public void add_keepsAtLeastTheConfiguredDuration() {
+    SampleRingBuffer ringBuffer = new SampleRingBuffer(1024, 2000000);
+
+    for (long second = 0; second <= 5; second++) {
+      ringBuffer.add(VIDEO, sample(10), second * 1000000, 0, true);
+      ringBuffer.add(AUDIO, sample(5), second * 1000000 + 500000, 0, false);
+    }
+
+    // The group starting at 3s still covers 2s of history up to 5.5s, the one at 4s doesn't.
+    assertEquals(2500000, ringBuffer.getBufferedDurationUs());
+    assertEquals(3000000L, (long) drainTimestamps(ringBuffer).get(0));
+  }
+
+  @Test
+  public void add_restartsWhenASingleGroupDoesNotFit() {
+    SampleRingBuffer ringBuffer = new SampleRingBuffer(50, Long.MAX_VALUE);
+
+    ringBuffer.add(VIDEO, sample(30), 0, 0, true);
+    assertFalse(ringBuffer.add(VIDEO, sample(30), 1, 0, false));
+    assertEquals(0, ringBuffer.getSampleCount());
+    assertTrue(ringBuffer.add(VIDEO, sample(30), 2, 0, true));
+  }
+
+  @Test
+  public void drainTo_preservesSampleData() {
+    SampleRingBuffer ringBuffer = new SampleRingBuffer(64, Long.MAX_VALUE);
+    for (int i = 0; i < 10; i++) {
+      ByteBuffer data = ByteBuffer.allocate(12);
+      while (data.hasRemaining()) {
+        data.put((byte) i);
+      }
+      data.flip();
+      ringBuffer.add(VIDEO, data, i, 0, i % 2 == 0);
+    }
+
+    final List<Integer> firstBytes = new ArrayList<>();
+    ringBuffer.drainTo(
+        (int track, ByteBuffer data, long presentationTimeUs, int flags) -> {
+          assertEquals(12, data.remaining());
+          assertEquals(presentationTimeUs, data.get(data.position()));
+          firstBytes.add((int) data.get(data.position()));
+        });
+
+    assertEquals(4, firstBytes.size());
+    assertEquals(6, (int) firstBytes.get(0));
+    assertEquals(0, ringBuffer.getUsedBytes());
+  }
+
+  private static ByteBuffer sample(int size) {
+    return ByteBuffer.allocate(size);
+  }
+
+  private static List<Long> drainTimestamps(SampleRingBuffer ringBuffer) {
+    final List<Long> timestamps = new ArrayList<>();
+    ringBuffer.drainTo(
+        (int track, ByteBuffer data, long presentationTimeUs, int flags) ->
+            timestamps.add(presentationTimeUs));
+    return timestamps;
+  }
+}
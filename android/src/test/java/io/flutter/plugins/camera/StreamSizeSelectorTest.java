@@ -0,0 +1,116 @@
+package io.flutter.plugins.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import io.flutter.plugins.camera.StreamSizeSelector.Candidate;
+import io.flutter.plugins.camera.StreamSizeSelector.Format;
+import io.flutter.plugins.camera.StreamSizeSelector.HardwareLevel;
+import io.flutter.plugins.camera.StreamSizeSelector.Output;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class StreamSizeSelectorTest {
+  private static final long FPS_30_NS = 33_333_333L;
+  private static final long FPS_15_NS = 66_666_666L;
+
+  private static StreamSizeSelector createSelector(HardwareLevel level) {
+    return new StreamSizeSelector(level, 1920, 1080, 1920, 1080);
+  }
+
+  private static Output createJpegOutput() {
+    return new Output(
+        Format.JPEG, false, Collections.singletonList(new Candidate(4000, 3000, 0, 0)));
+  }
+
+  @Test
+  public void select_picksTheLargestSizesInPriorityOrder() {
+    Output preview =
+        new Output(
+            Format.PRIVATE,
+            true,
+            Arrays.asList(
+                new Candidate(640, 480, FPS_30_NS, 0), new Candidate(1280, 720, FPS_30_NS, 0)));
+    Output stream =
+        new Output(
+            Format.YUV,
+            true,
+            Arrays.asList(
+                new Candidate(1280, 720, FPS_30_NS, 0), new Candidate(640, 480, FPS_30_NS, 0)));
+
+    List<Candidate> chosen =
+        createSelector(HardwareLevel.LEGACY)
+            .select(Arrays.asList(preview, stream, createJpegOutput()), 30);
+
+    assertEquals(1280, chosen.get(0).width);
+    assertEquals(1280, chosen.get(1).width);
+    assertEquals(4000, chosen.get(2).width);
+  }
+
+  @Test
+  public void select_skipsSizesTooSlowForTheTargetFps() {
+    Output preview =
+        new Output(
+            Format.PRIVATE,
+            true,
+            Arrays.asList(
+                new Candidate(1920, 1080, FPS_15_NS, 0), new Candidate(1280, 720, FPS_30_NS, 0)));
+
+    List<Candidate> chosen =
+        createSelector(HardwareLevel.FULL).select(Collections.singletonList(preview), 30);
+
+    assertEquals(1280, chosen.get(0).width);
+  }
+
+  @Test
+  public void select_addsTheStallDurationOfRepeatingOutputs() {
+    Output preview =
+        new Output(
+            Format.PRIVATE,
+            true,
+            Collections.singletonList(new Candidate(1280, 720, 20_000_000L, 0)));
+    // Each is fast enough alone, but the stall of the larger one adds up with the preview.
+    Output stream =
+        new Output(
+            Format.YUV,
+            true,
+            Arrays.asList(
+                new Candidate(1280, 720, 20_000_000L, 20_000_000L),
+                new Candidate(640, 480, 20_000_000L, 0)));
+
+    List<Candidate> chosen =
+        createSelector(HardwareLevel.FULL).select(Arrays.asList(preview, stream), 30);
+
+    assertEquals(640, chosen.get(1).width);
+  }
+
+  @Test
+  public void select_keepsToTheGuaranteedCombinationsOfTheLevel() {
+    Output preview =
+        new Output(Format.PRIVATE, true, Collections.singletonList(new Candidate(1280, 720, 0, 0)));
+    Output stream =
+        new Output(
+            Format.YUV,
+            true,
+            Arrays.asList(new Candidate(4000, 3000, 0, 0), new Candidate(1280, 720, 0, 0)));
+    List<Output> outputs = Arrays.asList(preview, stream);
+
+    // Only FULL devices guarantee a maximum sized YUV stream next to the preview.
+    assertEquals(1280, createSelector(HardwareLevel.LIMITED).select(outputs, 30).get(1).width);
+    assertEquals(4000, createSelector(HardwareLevel.FULL).select(outputs, 30).get(1).width);
+  }
+
+  @Test
+  public void select_returnsNullWithoutAQualifyingCombination() {
+    Output preview =
+        new Output(
+            Format.PRIVATE,
+            true,
+            Collections.singletonList(new Candidate(1920, 1080, FPS_15_NS, 0)));
+
+    assertNull(
+        createSelector(HardwareLevel.LEVEL_3).select(Collections.singletonList(preview), 30));
+  }
+}
@@ -0,0 +1,39 @@
+package io.flutter.plugins.camera;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class StreamSnapshotTest {
+  @Test
+  public void toNv21_dropsRowPadding() {
+    // A 4x2 frame with rows padded to 6 bytes and planar chroma.
+    ByteBuffer y = ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 0, 0, 5, 6, 7, 8, 0, 0});
+    ByteBuffer u = ByteBuffer.wrap(new byte[] {10, 11});
+    ByteBuffer v = ByteBuffer.wrap(new byte[] {20, 21});
+
+    byte[] nv21 =
+        StreamSnapshot.toNv21(
+            4, 2, new ByteBuffer[] {y, u, v}, new int[] {6, 2, 2}, new int[] {1, 1, 1});
+
+    assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 20, 10, 21, 11}, nv21);
+  }
+
+  @Test
+  public void toNv21_interleavesSemiPlanarChroma() {
+    // The U and V planes of a semi-planar frame share one buffer, offset by a byte.
+    byte[] chroma = {10, 20, 11, 21, 0, 0, 12, 22, 13, 23};
+    ByteBuffer y = ByteBuffer.wrap(new byte[16]);
+    ByteBuffer u = ByteBuffer.wrap(chroma, 0, 9).slice();
+    ByteBuffer v = ByteBuffer.wrap(chroma, 1, 9).slice();
+
+    byte[] nv21 =
+        StreamSnapshot.toNv21(
+            4, 4, new ByteBuffer[] {y, u, v}, new int[] {4, 6, 6}, new int[] {1, 2, 2});
+
+    byte[] expected = new byte[24];
+    System.arraycopy(new byte[] {20, 10, 21, 11, 22, 12, 23, 13}, 0, expected, 16, 8);
+    assertArrayEquals(expected, nv21);
+  }
+}
@@ -0,0 +1,77 @@
+package io.flutter.plugins.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.SurfaceTexture;
+import android.view.Surface;
+import org.junit.Test;
+
+public class SurfaceManagerTest {
+  /** A {@link SurfaceManager.SurfaceFactory} that counts the surfaces it creates and releases. */
+  private static class FakeSurfaceFactory implements SurfaceManager.SurfaceFactory {
+    private int createdSurfaces;
+    private int releasedSurfaces;
+
+    @Override
+    public Surface create(SurfaceTexture surfaceTexture) {
+      createdSurfaces++;
+      return new Surface();
+    }
+
+    @Override
+    public void release(Surface surface) {
+      releasedSurfaces++;
+    }
+  }
+
+  private final FakeSurfaceFactory factory = new FakeSurfaceFactory();
+  private final SurfaceManager surfaceManager = new SurfaceManager(factory);
+
+  @Test
+  public void getSurface_reusesTheSurfaceOfATexture() {
+    SurfaceTexture preview = new SurfaceTexture(0);
+    SurfaceTexture other = new SurfaceTexture(1);
+
+    Surface surface = surfaceManager.getSurface(preview);
+
+    assertSame(surface, surfaceManager.getSurface(preview));
+    assertNotSame(surface, surfaceManager.getSurface(other));
+    assertEquals(2, factory.createdSurfaces);
+  }
+
+  @Test
+  public void release_releasesEverySurface() {
+    SurfaceTexture preview = new SurfaceTexture(0);
+    surfaceManager.getSurface(preview);
+    surfaceManager.getSurface(new SurfaceTexture(1));
+
+    surfaceManager.release();
+
+    assertEquals(2, factory.releasedSurfaces);
+    assertEquals(0, surfaceManager.getSurfaceCount());
+    surfaceManager.getSurface(preview);
+    assertEquals(3, factory.createdSurfaces);
+  }
+
+  @Test
+  public void soak_switchingModesKeepsSurfacesFlat() {
+    SurfaceTexture preview = new SurfaceTexture(0);
+
+    // Preview, recording and streaming sessions each ask for the preview surface, and the camera
+    // is closed and opened again every thousand switches.
+    for (int modeSwitch = 1; modeSwitch <= 10_000; modeSwitch++) {
+      surfaceManager.getSurface(preview);
+      assertTrue(surfaceManager.getSurfaceCount() <= 1);
+      if (modeSwitch % 1000 == 0) {
+        surfaceManager.release();
+      }
+    }
+
+    assertEquals(10, factory.createdSurfaces);
+    assertEquals(10, factory.releasedSurfaces);
+    assertEquals(0, surfaceManager.getSurfaceCount());
+  }
+}
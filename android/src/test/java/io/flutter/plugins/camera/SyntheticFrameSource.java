@@ -0,0 +1,68 @@
+package io.flutter.plugins.camera;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Produces YUV_420_888 frames like an {@link android.media.ImageReader} would, with a Y plane and
+ * semi-planar U and V planes, for driving the stream path without a device.
+ */
+final class SyntheticFrameSource {
+  static final int YUV_420_888 = 0x23;
+
+  private final int width;
+  private final int height;
+  private final int fps;
+  private final ByteBuffer[] planeBuffers;
+  private final int[] rowStrides;
+  private final int[] pixelStrides = {1, 2, 2};
+
+  /** Frames are produced {@code fps} times a second, or as fast as possible if it is zero. */
+  SyntheticFrameSource(int width, int height, int fps) {
+    this.width = width;
+    this.height = height;
+    this.fps = fps;
+    int lumaSize = width * height;
+    int chromaSize = width * (height / 2 - 1) + width - 1;
+    rowStrides = new int[] {width, width, width};
+    planeBuffers =
+        new ByteBuffer[] {
+          ByteBuffer.allocateDirect(lumaSize),
+          ByteBuffer.allocateDirect(chromaSize),
+          ByteBuffer.allocateDirect(chromaSize)
+        };
+    Random random = new Random(42);
+    for (ByteBuffer buffer : planeBuffers) {
+      byte[] bytes = new byte[buffer.capacity()];
+      random.nextBytes(bytes);
+      buffer.put(bytes);
+    }
+  }
+
+  /** Returns the size of a frame once copied out of its planes. */
+  int getFrameBytes() {
+    int frameBytes = 0;
+    for (ByteBuffer buffer : planeBuffers) {
+      frameBytes += buffer.capacity();
+    }
+    return frameBytes;
+  }
+
+  /** Offers {@code frameCount} frames to {@code pipeline} on the calling thread. */
+  void run(ImageStreamPipeline pipeline, int frameCount) throws InterruptedException {
+    long frameIntervalNanos = fps > 0 ? 1_000_000_000L / fps : 0;
+    long nextFrameNanos = System.nanoTime();
+    for (int frame = 0; frame < frameCount; frame++) {
+      long waitNanos = nextFrameNanos - System.nanoTime();
+      if (waitNanos > 0) {
+        Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+      }
+      nextFrameNanos += frameIntervalNanos;
+
+      for (ByteBuffer buffer : planeBuffers) {
+        buffer.rewind();
+      }
+      pipeline.offer(width, height, YUV_420_888, planeBuffers, rowStrides, pixelStrides);
+    }
+  }
+}
@@ -311,21 +311,37 @@ class CameraController extends ValueNotifier<CameraValue> {
   ///
   /// Throws a [CameraException] if the prepare fails.
   Future<void> prepareForVideoRecording() async {
-    await _channel.invokeMethod<void>('prepareForVideoRecording');
+    await _channel.invokeMethod<void>(
+      'prepareForVideoRecording',
+      <String, dynamic>{'textureId': _textureId},
+    );
   }
 
   /// Listen to events from the native plugins.
   ///
   /// A "cameraClosing" event is sent when the camera is closed automatically by the system (for example when the app go to background). The plugin will try to reopen the camera automatically but any ongoing recording will end.
+  ///
+  /// When event batching is enabled, events arrive as one "batch" event that
+  /// lists them in order.
   void _listener(dynamic event) {
     final Map<dynamic, dynamic> map = event;
     if (_isDisposed) {
       return;
     }
 
+    if (map['eventType'] == 'batch') {
+      for (final dynamic batchedEvent in map['events']) {
+        _handleEvent(batchedEvent);
+      }
+      return;
+    }
+    _handleEvent(map);
+  }
+
+  void _handleEvent(Map<dynamic, dynamic> map) {
     switch (map['eventType']) {
       case 'error':
-        value = value.copyWith(errorDescription: event['errorDescription']);
+        value = value.copyWith(errorDescription: map['errorDescription']);
         break;
       case 'cameraClosing':
         value = value.copyWith(isRecordingVideo: false);
@@ -402,13 +418,16 @@ class CameraController extends ValueNotifier<CameraValue> {
     }
 
     try {
-      await _channel.invokeMethod<void>('startImageStream');
+      await _channel.invokeMethod<void>(
+        'startImageStream',
+        <String, dynamic>{'textureId': _textureId},
+      );
       value = value.copyWith(isStreamingImages: true);
     } on PlatformException catch (e) {
       throw CameraException(e.code, e.message);
     }
-    const EventChannel cameraEventChannel =
-        EventChannel('plugins.flutter.io/camera/imageStream');
+    final EventChannel cameraEventChannel =
+        EventChannel('plugins.flutter.io/camera/imageStream/$_textureId');
     _imageStreamSubscription =
         cameraEventChannel.receiveBroadcastStream().listen(
       (dynamic imageData) {
@@ -443,7 +462,10 @@ class CameraController extends ValueNotifier<CameraValue> {
 
     try {
       value = value.copyWith(isStreamingImages: false);
-      await _channel.invokeMethod<void>('stopImageStream');
+      await _channel.invokeMethod<void>(
+        'stopImageStream',
+        <String, dynamic>{'textureId': _textureId},
+      );
     } on PlatformException catch (e) {
       throw CameraException(e.code, e.message);
     }